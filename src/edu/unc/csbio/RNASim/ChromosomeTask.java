@@ -0,0 +1,198 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import edu.unc.csbio.data.*;
+import edu.unc.csbio.util.*;
+
+/**
+ * The class <code>ChromosomeTask</code> generates the reads of all genes in
+ * one chromosome. Each task owns its quality score generator, statistics and
+ * output writers, and the random numbers of its reads come from streams of
+ * their own, so that the tasks of different chromosomes can run concurrently
+ * without sharing any mutable state.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class ChromosomeTask implements Callable<ChromosomeTask> {
+	/**
+	 * the chromosome processed by this task
+	 */
+	private final String chrom;
+	/**
+	 * the quality score generator of this task
+	 */
+	private QualityGenerator qg = null;
+	/**
+	 * the read pool of this task
+	 */
+	private final ReadPool pool = new ReadPool();
+	/**
+	 * the fq writers of the first and second pair end reads of each sample
+	 */
+	private FqWriter[] out1 = null, out2 = null;
+	/**
+	 * the spool files that the reads of each sample are written to, if the
+	 * task does not write to the final output directly
+	 */
+	private final File[] spool1, spool2;
+	/**
+	 * whether the progress is printed while generating reads
+	 */
+	private final boolean verbose;
+	/**
+	 * total number of the reads in the chromosome
+	 */
+	long totalReads = 0;
+	/**
+	 * total number of the transcripts in the chromosome
+	 */
+	long totalTranscripts = 0;
+	/**
+	 * total number of the genes in the chromosome
+	 */
+	long totalGenes = 0;
+
+	/**
+	 * A constructor for a task writing to the final output directly. It is
+	 * used when chromosomes are processed one by one.
+	 *
+	 * @param _chrom the chromosome
+	 * @param _out1 the fq writers of the first pair end reads of each sample
+	 * @param _out2 the fq writers of the second pair end reads of each
+	 *            sample
+	 */
+	public ChromosomeTask(String _chrom, FqWriter[] _out1, FqWriter[] _out2) {
+		chrom = _chrom;
+		out1 = _out1;
+		out2 = _out2;
+		spool1 = null;
+		spool2 = null;
+		verbose = true;
+	}
+
+	/**
+	 * A constructor for a task writing to its own spool files. It is used
+	 * when chromosomes are processed concurrently, and the spool files are
+	 * later appended to the final output in the chromosome order.
+	 *
+	 * @param _chrom the chromosome
+	 * @param _spool1 the spool files of the first pair end reads of each
+	 *            sample
+	 * @param _spool2 the spool files of the second pair end reads of each
+	 *            sample
+	 */
+	public ChromosomeTask(String _chrom, File[] _spool1, File[] _spool2) {
+		chrom = _chrom;
+		spool1 = _spool1;
+		spool2 = _spool2;
+		verbose = false;
+	}
+
+	/**
+	 * Get the chromosome of the task
+	 *
+	 * @return the chromosome
+	 */
+	public String getChromosome() {
+		return chrom;
+	}
+
+	/**
+	 * Get the spool files of the first pair end reads
+	 *
+	 * @return the spool file of each sample, or null if the task writes to
+	 *         the final output
+	 */
+	public File[] getSpool1() {
+		return spool1;
+	}
+
+	/**
+	 * Get the spool files of the second pair end reads
+	 *
+	 * @return the spool file of each sample, or null if the task writes to
+	 *         the final output
+	 */
+	public File[] getSpool2() {
+		return spool2;
+	}
+
+	/**
+	 * Generate the reads of the chromosome.
+	 *
+	 * @return this task, with its statistics filled
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	@Override
+	public ChromosomeTask call() throws IOException {
+		qg = QualityGeneratorFactory.CreateQualityGenertor();
+		if (spool1 == null) {
+			GenerateSequenceForGenes();
+			return this;
+		}
+
+		out1 = new FqWriter[spool1.length];
+		out2 = new FqWriter[spool2.length];
+		try {
+			for (int i = 0; i < spool1.length; ++i) {
+				out1[i] = new FqWriter(spool1[i].getPath(),
+						MainCmdline.outputBufferSize);
+				out2[i] = new FqWriter(spool2[i].getPath(),
+						MainCmdline.outputBufferSize);
+			}
+			GenerateSequenceForGenes();
+		} finally {
+			for (int i = 0; i < spool1.length; ++i) {
+				if (out1[i] != null)
+					out1[i].close();
+				if (out2[i] != null)
+					out2[i].close();
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * this method generates the reads of all genes of the chromosome of the
+	 * task, window by window, and appends them to the output fq files.
+	 *
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	private void GenerateSequenceForGenes() throws IOException {
+		System.out.println("Generating Sequences for Chromosome " + chrom
+				+ " ... ");
+
+		for (GeneWindow w : GeneWindow.plan(chrom)) {
+			try {
+				SequenceBuffer[] buffers = w.fetch();
+				for (ReadChunk chunk : w.split(buffers)) {
+					chunk.sample(qg, pool);
+					chunk.inject();
+					chunk.encode();
+					out1[chunk.sample].print(chunk.fastq1);
+					out2[chunk.sample].print(chunk.fastq2);
+
+					totalReads += chunk.size;
+					if (chunk.first)
+						++totalTranscripts;
+				}
+				for (int k = 0; k < w.getNumOfGenes(); ++k) {
+					totalGenes++;
+					if (verbose && totalGenes % 100 == 1)
+						System.out.print(totalGenes + " ");
+				}
+			} catch (RuntimeException e) {
+				System.out.print(e.getMessage());
+				// When runtime exception occurs, stop running on the
+				// chromosome.
+				break;
+			}
+		}
+	}
+}
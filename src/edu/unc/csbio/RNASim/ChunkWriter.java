@@ -0,0 +1,80 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.IOException;
+
+import edu.unc.csbio.util.*;
+
+/**
+ * The class <code>ChunkWriter</code> writes encoded chunks to the output fq
+ * files. The chunks must be given in the output order. When the last chunk
+ * of the last window of a chromosome is written, the statistics of the
+ * chromosome are reported.
+ *
+ * A chunk that failed and the chunks after it of the same chromosome are not
+ * written, and their windows are counted as failed, the same as
+ * <code>ChromosomeTask</code> stops on the chromosome.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+class ChunkWriter {
+	/**
+	 * the fq writers of the first and second pair end reads of each sample
+	 */
+	private final FqWriter[] out1, out2;
+	/**
+	 * the statistics of the current chromosome
+	 */
+	private long genes = 0, transcripts = 0, reads = 0;
+	/**
+	 * whether a chunk of the current chromosome failed
+	 */
+	private boolean failed = false;
+
+	/**
+	 * A constructor for <code>ChunkWriter</code> object
+	 *
+	 * @param _out1 the fq writers of the first pair end reads of each sample
+	 * @param _out2 the fq writers of the second pair end reads of each
+	 *            sample
+	 */
+	ChunkWriter(FqWriter[] _out1, FqWriter[] _out2) {
+		out1 = _out1;
+		out2 = _out2;
+	}
+
+	/**
+	 * Write an encoded chunk.
+	 *
+	 * @param chunk the chunk
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	void write(ReadChunk chunk) throws IOException {
+		GeneWindow w = chunk.window;
+		if (chunk.failed)
+			failed = true;
+		if (failed)
+			w.failed = true;
+		else {
+			out1[chunk.sample].print(chunk.fastq1);
+			out2[chunk.sample].print(chunk.fastq2);
+			reads += chunk.size;
+			if (chunk.first)
+				++transcripts;
+		}
+		if (!chunk.last)
+			return;
+
+		if (!w.failed)
+			genes += w.getNumOfGenes();
+		if (w.lastInChromosome) {
+			System.out.print("Chromosome " + w.chrom + " done.");
+			MainCmdline.ReportChromosome(genes, transcripts, reads);
+			genes = 0;
+			transcripts = 0;
+			reads = 0;
+			failed = false;
+		}
+	}
+}
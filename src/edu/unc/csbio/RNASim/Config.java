@@ -52,12 +52,27 @@ public class Config {
 			put("Quality_Generator", "Perfect");			
 			put("Real_Quality_Score_Fastq_1", "./real.1.fq");
 			put("Real_Quality_Score_Fastq_2", "./real.2.fq");
+			put("Quality_Model", "./quality.model");
 			put("Unknown_Factor","0.0001");
+			put("Error_Model","");
 			put("Output_Fastq_1", "./1.fq");
 			put("Output_Fastq_2", "./2.fq");			
 			put("Input_Buffer_Size","10485760"); //10M
 			put("Output_Buffer_Size","10485760"); //10M
 			put("Process_Window_Size","41943040"); //40Mbp
+			put("Worker_Threads","1");
+			put("Random_Seed","");
+			put("Parallel_Mode","Chromosome");
+			put("Pipeline_Threads","1,1,1,1");
+			put("Pipeline_Queue_Size","16");
+			put("Pipeline_Report_Interval","0");
+			put("Batch_Size","1024");
+			put("Genome_Store","Fasta");
+			put("Fetch_Mode","Window");
+			put("Sparse_Fetch","Yes");
+			put("Exon_Cache_Size","16777216");
+			put("Ploidy","1");
+			put("Allelic_Ratio","0.5");
 			
 		}
 	};
@@ -0,0 +1,373 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPInputStream;
+
+import edu.unc.csbio.data.ReadBatch;
+
+/**
+ * The class <code>ErrorModel</code> changes the bases of reads by an empirical
+ * substitution model, trained from real reads by
+ * <code>ErrorModelTrainer</code>. The model counts, for each end, cycle,
+ * quality score and true base, how often each base is called, so the error
+ * rate and the bases substituted depend on the position in the read as well
+ * as on the quality score.
+ *
+ * The counts are compiled once when the model is loaded. Each cell of an
+ * end, cycle, quality score and true base gets its error probability, and an
+ * alias table over the four other calls (the other three bases and N), so a
+ * substitution is drawn by one random number and one comparison. The counts
+ * of a cell are smoothed by those of the same quality score over all cycles.
+ * A quality score never seen in training falls back to its Phred error
+ * probability, with the other bases equally likely. As in
+ * <code>ReadModifier</code>, the distance to the next error is drawn at the
+ * highest error probability of the read, and an error is kept with the ratio
+ * of the probability of its cell to the highest.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class ErrorModel {
+	/**
+	 * the first bytes of a model file
+	 */
+	static final int MAGIC = 0x52534d31; // "RSM1"
+	/**
+	 * the first and the last printable characters of quality scores
+	 */
+	static final char FIRST_QUALITY = '!', LAST_QUALITY = '~';
+	/**
+	 * the number of quality score characters
+	 */
+	static final int QUALITIES = LAST_QUALITY - FIRST_QUALITY + 1;
+	/**
+	 * the bases called, in the order of the counts; the first four are the
+	 * true bases a model has cells for
+	 */
+	static final byte[] BASES = { 'A', 'C', 'G', 'T', 'N' };
+	/**
+	 * the index of each base in <code>BASES</code>, in either case, or -1
+	 */
+	static final byte[] CODE = new byte[256];
+	static {
+		Arrays.fill(CODE, (byte) -1);
+		for (int i = 0; i < BASES.length; ++i) {
+			CODE[BASES[i]] = (byte) i;
+			CODE[Character.toLowerCase(BASES[i])] = (byte) i;
+		}
+	}
+	/**
+	 * the weight, in bases, of the counts over all cycles in a cell
+	 */
+	private static final double PRIOR = 1;
+
+	/**
+	 * the number of ends and cycles of the model
+	 */
+	private final int ends, cycles;
+	/**
+	 * the index of each quality score character among those seen in
+	 * training, or -1
+	 */
+	private final int[] qualityIndex = new int[QUALITIES];
+	/**
+	 * the number of quality score characters seen in training
+	 */
+	private final int qualities;
+	/**
+	 * the index of the first fallback cell, for the quality scores not seen
+	 */
+	private final int fallback;
+	/**
+	 * the error probability of each cell, or a negative value if the
+	 * quality score is out of range
+	 */
+	private final float[] errorProb;
+	/**
+	 * the alias table of each cell: the probability of keeping each of the
+	 * four slots, the base of the slot, and the base of its alias
+	 */
+	private final float[] keep;
+	private final byte[] slot, alias;
+
+	/**
+	 * A constructor for <code>ErrorModel</code> object
+	 *
+	 * @param _ends the number of ends
+	 * @param _cycles the number of cycles
+	 * @param counts the counts of each end and cycle, by quality score, true
+	 *            base and base called, or null if there is none
+	 */
+	ErrorModel(int _ends, int _cycles, double[][][] counts) {
+		ends = _ends;
+		cycles = _cycles;
+		int stride = 4 * BASES.length;
+
+		/* The counts of each end over all cycles, to smooth the cells */
+		double[][] pooled = new double[ends][QUALITIES * stride];
+		for (int e = 0; e < ends; ++e)
+			for (int c = 0; c < cycles; ++c)
+				if (counts[e][c] != null)
+					for (int i = 0; i < pooled[e].length; ++i)
+						pooled[e][i] += counts[e][c][i];
+
+		int n = 0;
+		for (int q = 0; q < QUALITIES; ++q) {
+			boolean seen = false;
+			for (int e = 0; e < ends && !seen; ++e)
+				for (int i = 0; i < stride && !seen; ++i)
+					seen = pooled[e][q * stride + i] > 0;
+			qualityIndex[q] = seen ? n++ : -1;
+		}
+		qualities = n;
+		fallback = ends * cycles * qualities * 4;
+		int cells = fallback + QUALITIES * 4;
+		errorProb = new float[cells];
+		keep = new float[cells * 4];
+		slot = new byte[cells * 4];
+		alias = new byte[cells * 4];
+
+		double[] w = new double[BASES.length];
+		for (int e = 0; e < ends; ++e)
+			for (int c = 0; c < cycles; ++c)
+				for (int q = 0; q < QUALITIES; ++q) {
+					if (qualityIndex[q] < 0)
+						continue;
+					for (int b = 0; b < 4; ++b) {
+						int k = q * stride + b * BASES.length;
+						double all = 0, total = 0;
+						for (int o = 0; o < BASES.length; ++o)
+							all += pooled[e][k + o];
+						for (int o = 0; o < BASES.length; ++o) {
+							w[o] = all > 0 ? PRIOR * pooled[e][k + o] / all : 0;
+							if (counts[e][c] != null)
+								w[o] += counts[e][c][k + o];
+							total += w[o];
+						}
+						if (total == 0)
+							total = phred(q, b, w);
+						compile(cell(e, c, q, b), b, w, total);
+					}
+				}
+		for (int q = 0; q < QUALITIES; ++q)
+			for (int b = 0; b < 4; ++b)
+				compile(fallback + q * 4 + b, b, w, phred(q, b, w));
+	}
+
+	/**
+	 * Fill the counts of a cell by the Phred error probability of its quality
+	 * score, with the other bases equally likely.
+	 *
+	 * @param q the index of the quality score character
+	 * @param b the index of the true base
+	 * @param w the counts to be filled
+	 * @return the sum of the counts, or -1 if the quality score is out of
+	 *         range
+	 */
+	private static double phred(int q, int b, double[] w) {
+		double p = ReadModifier.qualityErrorProb((char) (FIRST_QUALITY + q));
+		for (int o = 0; o < BASES.length; ++o)
+			w[o] = o == b ? 1 - p : o < 4 ? p / 3 : 0;
+		return p > 1 ? -1 : 1;
+	}
+
+	/**
+	 * Compile the counts of a cell into its error probability and alias
+	 * table, by the method of Vose.
+	 *
+	 * @param cell the index of the cell
+	 * @param b the true base of the cell
+	 * @param w the counts of each base called
+	 * @param total the sum of the counts, or a negative value to mark the
+	 *            cell as out of range
+	 */
+	private void compile(int cell, int b, double[] w, double total) {
+		double error = 0;
+		for (int o = 0; o < BASES.length; ++o)
+			if (o != b)
+				error += w[o];
+		errorProb[cell] = total < 0 ? -1 : total > 0 ? (float) (error / total)
+				: 0;
+
+		double[] p = new double[4];
+		byte[] base = new byte[4];
+		for (int o = 0, k = 0; o < BASES.length; ++o) {
+			if (o == b)
+				continue;
+			p[k] = error > 0 ? w[o] * 4 / error : 1;
+			base[k++] = BASES[o];
+		}
+		int[] small = new int[4], large = new int[4];
+		int ns = 0, nl = 0;
+		for (int k = 0; k < 4; ++k) {
+			if (p[k] < 1)
+				small[ns++] = k;
+			else
+				large[nl++] = k;
+		}
+		int at = cell * 4;
+		for (int k = 0; k < 4; ++k) {
+			slot[at + k] = base[k];
+			alias[at + k] = base[k];
+			keep[at + k] = 1;
+		}
+		while (ns > 0 && nl > 0) {
+			int s = small[--ns], l = large[--nl];
+			keep[at + s] = (float) p[s];
+			alias[at + s] = base[l];
+			p[l] -= 1 - p[s];
+			if (p[l] < 1)
+				small[ns++] = l;
+			else
+				large[nl++] = l;
+		}
+	}
+
+	/**
+	 * Get the index of the cell of a base in a read.
+	 *
+	 * @param e the end of the read
+	 * @param c the cycle of the base
+	 * @param q the index of the quality score character
+	 * @param b the index of the true base
+	 */
+	private int cell(int e, int c, int q, int b) {
+		int qi = qualityIndex[q];
+		if (qi < 0)
+			return fallback + q * 4 + b;
+		return ((Math.min(e, ends - 1) * cycles + Math.min(c, cycles - 1))
+				* qualities + qi) * 4 + b;
+	}
+
+	/**
+	 * Change the bases of a read by the model. A base other than A, C, G and
+	 * T is left as it is.
+	 *
+	 * @param rb the batch of the read, with its quality scores
+	 * @param r the index of the read
+	 * @param e the end of the read, 0 for the first
+	 * @param random the random number stream of the caller
+	 */
+	private void modify(ReadBatch rb, int r, int e, SplittableRandom random) {
+		int length = rb.lengths[r], at = r * rb.stride;
+		if (length != rb.qualityLengths[r])
+			throw (new RuntimeException(
+					"length of quality score not match the read"));
+		byte[] qs = rb.qualities, seq = rb.bases;
+		double max = 0;
+		for (int j = 0; j < length; ++j) {
+			int q = qs[at + j] - FIRST_QUALITY;
+			if (q < 0 || q >= QUALITIES)
+				throw (new RuntimeException("Unknown quality score "
+						+ (char) qs[at + j] + "."));
+			int b = CODE[seq[at + j] & 0xff];
+			if (b < 0 || b > 3)
+				continue;
+			float p = errorProb[cell(e, j, q, b)];
+			if (p < 0)
+				throw (new RuntimeException("Quality score "
+						+ (char) qs[at + j] + " out of range."));
+			max = Math.max(max, p);
+		}
+		if (max == 0)
+			return;
+
+		double logq = Math.log1p(-max);
+		for (int j = ReadModifier.skip(logq, length, random); j < length; j += 1 + ReadModifier
+				.skip(logq, length, random)) {
+			int b = CODE[seq[at + j] & 0xff];
+			if (b < 0 || b > 3)
+				continue;
+			int c = cell(e, j, qs[at + j] - FIRST_QUALITY, b);
+			float p = errorProb[c];
+			if (p == max || random.nextDouble() * max < p) {
+				double u = random.nextDouble() * 4;
+				int k = (int) u, s = c * 4 + k;
+				seq[at + j] = u - k < keep[s] ? slot[s] : alias[s];
+			}
+		}
+	}
+
+	/**
+	 * Change the bases of the reads of the pairs not failed by the model. The
+	 * bases of each read are in the order they are sequenced, i.e. after the
+	 * read is flipped and reversed. A pair fails if a quality score is out of
+	 * range.
+	 *
+	 * @param b the batch of reads, with their quality scores
+	 * @param random the random number stream of the caller
+	 */
+	public void modify(ReadBatch b, SplittableRandom random) {
+		for (int i = 0; i < b.size; ++i) {
+			if (b.failed[i])
+				continue;
+			try {
+				modify(b, 2 * i, 0, random);
+				modify(b, 2 * i + 1, 1, random);
+			} catch (RuntimeException e) {
+				b.fail(i, e);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of cycles of the model
+	 *
+	 * @return the number of cycles; longer reads use the last one
+	 */
+	public int getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Get the number of ends of the model
+	 *
+	 * @return the number of ends; a model of one end is used for both
+	 */
+	public int getEnds() {
+		return ends;
+	}
+
+	/**
+	 * Read a model file written by <code>ErrorModelTrainer</code>.
+	 *
+	 * @param fn the name of the model file
+	 * @return the model
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public static ErrorModel read(String fn) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(fn))));
+		try {
+			if (in.readInt() != MAGIC)
+				throw (new IOException("Not an error model file " + fn + "."));
+			int ends = in.readInt(), cycles = in.readInt();
+			int n = in.readInt();
+			if (ends < 1 || cycles < 1)
+				throw (new IOException("Empty error model file " + fn + "."));
+			int stride = 4 * BASES.length;
+			double[][][] counts = new double[ends][cycles][];
+			for (int i = 0; i < n; ++i) {
+				int e = in.readUnsignedByte(), c = in.readUnsignedShort();
+				int q = in.readUnsignedByte(), b = in.readUnsignedByte();
+				if (e >= ends || c >= cycles || q >= QUALITIES || b >= 4)
+					throw (new IOException("Corrupted error model file " + fn
+							+ "."));
+				if (counts[e][c] == null)
+					counts[e][c] = new double[QUALITIES * stride];
+				for (int o = 0; o < BASES.length; ++o)
+					counts[e][c][q * stride + b * BASES.length + o] = in
+							.readDouble();
+			}
+			return new ErrorModel(ends, cycles, counts);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The class <code>ErrorModelTrainer</code> trains an
+ * <code>ErrorModel</code> from real reads. For each end, a Fastq file of the
+ * reads is scanned together with a Fastq file of their true sequences, in
+ * the same order, e.g. the reference bases the reads are aligned to, and
+ * the bases called are counted by cycle, quality score and true base.
+ *
+ * Without the true sequences, e.g. for the files of
+ * "Real_Quality_Score_Fastq_1" and "Real_Quality_Score_Fastq_2", the base
+ * called is taken as the true base, and the counts are split by the Phred
+ * error probability of its quality score, so the model keeps the error rate
+ * of each cycle and quality score of the reads, with the other bases equally
+ * likely.
+ *
+ * The counts of the cells seen are written to the model file, compressed by
+ * gzip.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class ErrorModelTrainer {
+	/**
+	 * the counts of each end and cycle, by quality score, true base and base
+	 * called
+	 */
+	private final ArrayList<ArrayList<double[]>> counts = new ArrayList<ArrayList<double[]>>();
+
+	/**
+	 * Open a Fastq file, compressed by gzip if its name ends with ".gz".
+	 */
+	private static BufferedReader open(String fn) throws IOException {
+		InputStream in = new FileInputStream(fn);
+		if (fn.endsWith(".gz"))
+			in = new GZIPInputStream(in, 65536);
+		return new BufferedReader(new InputStreamReader(in, "US-ASCII"),
+				1 << 20);
+	}
+
+	/**
+	 * Get the counts of a cycle of an end, made if there are none.
+	 */
+	private double[] cycle(ArrayList<double[]> end, int c) {
+		while (end.size() <= c)
+			end.add(null);
+		double[] cnt = end.get(c);
+		if (cnt == null) {
+			cnt = new double[ErrorModel.QUALITIES * 4 * ErrorModel.BASES.length];
+			end.set(c, cnt);
+		}
+		return cnt;
+	}
+
+	/**
+	 * Count the bases of the reads of an end.
+	 *
+	 * @param readFn the Fastq file of the reads
+	 * @param truthFn the Fastq file of the true sequences, or null
+	 * @return the number of reads counted
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public long add(String readFn, String truthFn) throws IOException {
+		ArrayList<double[]> end = new ArrayList<double[]>();
+		counts.add(end);
+		int stride = 4 * ErrorModel.BASES.length;
+		long n = 0;
+		BufferedReader br = open(readFn);
+		BufferedReader tr = truthFn == null ? null : open(truthFn);
+		try {
+			String seq, qs, truth = null;
+			while (br.readLine() != null) {
+				seq = br.readLine();
+				br.readLine();
+				qs = br.readLine();
+				if (qs == null || qs.length() != seq.length())
+					throw (new RuntimeException("Truncated record in "
+							+ readFn + "."));
+				if (tr != null) {
+					tr.readLine();
+					truth = tr.readLine();
+					tr.readLine();
+					tr.readLine();
+					if (truth == null)
+						throw (new RuntimeException("Less records in "
+								+ truthFn + " than in " + readFn + "."));
+					if (truth.length() != seq.length())
+						throw (new RuntimeException("Length of record " + n
+								+ " in " + truthFn + " not match " + readFn
+								+ "."));
+				}
+				for (int j = Math.min(seq.length(), 65536) - 1; j >= 0; --j) {
+					int q = qs.charAt(j) - ErrorModel.FIRST_QUALITY;
+					if (q < 0 || q >= ErrorModel.QUALITIES)
+						throw (new RuntimeException("Unknown quality score "
+								+ qs.charAt(j) + "."));
+					int o = ErrorModel.CODE[seq.charAt(j) & 0xff];
+					if (tr != null) {
+						int b = ErrorModel.CODE[truth.charAt(j) & 0xff];
+						if (b < 0 || b > 3 || o < 0)
+							continue;
+						cycle(end, j)[q * stride + b * ErrorModel.BASES.length
+								+ o] += 1;
+					} else {
+						if (o < 0 || o > 3)
+							continue;
+						double p = ReadModifier.qualityErrorProb(qs.charAt(j));
+						if (p > 1)
+							throw (new RuntimeException("Quality score "
+									+ qs.charAt(j) + " out of range."));
+						double[] cnt = cycle(end, j);
+						int k = q * stride + o * ErrorModel.BASES.length;
+						for (int x = 0; x < 4; ++x)
+							cnt[k + x] += x == o ? 1 - p : p / 3;
+					}
+				}
+				++n;
+			}
+		} finally {
+			br.close();
+			if (tr != null)
+				tr.close();
+		}
+		return n;
+	}
+
+	/**
+	 * Write the counts to a model file.
+	 *
+	 * @param fn the name of the model file
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public void write(String fn) throws IOException {
+		int cycles = 0;
+		for (ArrayList<double[]> end : counts)
+			cycles = Math.max(cycles, end.size());
+		int stride = 4 * ErrorModel.BASES.length;
+
+		int cells = 0;
+		for (ArrayList<double[]> end : counts)
+			for (double[] cnt : end)
+				for (int k = 0; cnt != null && k < cnt.length; k += ErrorModel.BASES.length)
+					if (seen(cnt, k))
+						++cells;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(fn))));
+		try {
+			out.writeInt(ErrorModel.MAGIC);
+			out.writeInt(counts.size());
+			out.writeInt(cycles);
+			out.writeInt(cells);
+			for (int e = 0; e < counts.size(); ++e) {
+				ArrayList<double[]> end = counts.get(e);
+				for (int c = 0; c < end.size(); ++c) {
+					double[] cnt = end.get(c);
+					for (int k = 0; cnt != null && k < cnt.length; k += ErrorModel.BASES.length) {
+						if (!seen(cnt, k))
+							continue;
+						out.writeByte(e);
+						out.writeShort(c);
+						out.writeByte(k / stride);
+						out.writeByte(k % stride / ErrorModel.BASES.length);
+						for (int o = 0; o < ErrorModel.BASES.length; ++o)
+							out.writeDouble(cnt[k + o]);
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Check if a cell has any count.
+	 */
+	private static boolean seen(double[] cnt, int k) {
+		for (int o = 0; o < ErrorModel.BASES.length; ++o)
+			if (cnt[k + o] > 0)
+				return true;
+		return false;
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 3 || args.length % 2 == 0) {
+			System.err.println("Argument not enought!");
+			System.err
+					.println("Usage: java -cp RNAseqSim-version.jar edu.unc.csbio.RNASim.ErrorModelTrainer "
+							+ "Model_File Fastq_1 Truth_1|- [Fastq_2 Truth_2|-]");
+			System.err.println("abort!");
+			System.exit(1);
+		}
+		try {
+			ErrorModelTrainer trainer = new ErrorModelTrainer();
+			for (int i = 1; i < args.length; i += 2) {
+				String truth = args[i + 1].equals("-") ? null : args[i + 1];
+				long n = trainer.add(args[i], truth);
+				System.out.println(n + " reads of end " + (i + 1) / 2
+						+ " counted from [" + args[i] + "]"
+						+ (truth == null ? "." : " and [" + truth + "]."));
+			}
+			trainer.write(args[0]);
+			System.out.println("Error model written to [" + args[0] + "].");
+		} catch (IOException e) {
+			MainCmdline.abort(e);
+		}
+	}
+}
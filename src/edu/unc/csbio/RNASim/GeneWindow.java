@@ -0,0 +1,362 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import edu.unc.csbio.data.*;
+import edu.unc.csbio.util.*;
+
+/**
+ * The class <code>GeneWindow</code> is a range of the reference coordinate
+ * covering a group of neighbouring genes in one chromosome. To avoid reading
+ * the .fa file many times, the sequence of a whole window is read at once,
+ * and the reads of all genes in the window are generated from it.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class GeneWindow {
+	/**
+	 * the chromosome of the window
+	 */
+	final String chrom;
+	/**
+	 * the genes in the window, ordered by their location
+	 */
+	final List<Gene> genes;
+	/**
+	 * the start and end positions of the window
+	 */
+	final int start, end;
+	/**
+	 * the position of the window in the output order
+	 */
+	long ordinal = 0;
+	/**
+	 * whether it is the last window of its chromosome
+	 */
+	boolean lastInChromosome = false;
+	/**
+	 * whether the sequence of the window failed to be processed
+	 */
+	boolean failed = false;
+
+	/**
+	 * A constructor for <code>GeneWindow</code> object
+	 *
+	 * @param _chrom the chromosome
+	 * @param _genes the genes in the window
+	 * @param _start the start position
+	 * @param _end the end position
+	 */
+	public GeneWindow(String _chrom, List<Gene> _genes, int _start, int _end) {
+		chrom = _chrom;
+		genes = _genes;
+		start = _start;
+		end = _end;
+	}
+
+	/**
+	 * Group the genes of a chromosome into windows. The range of genes is
+	 * accumulated until it is over <code>Process_Window_Size</code>. When the
+	 * chromosomes are streamed, each gene is a window of its own, and the
+	 * windows are read from the sliding buffer of the chromosome.
+	 *
+	 * @param chrom the chromosome
+	 * @return the windows of the chromosome, ordered by their location
+	 */
+	public static ArrayList<GeneWindow> plan(String chrom) {
+		Gene[] genes = MainCmdline.genes;
+		ArrayList<Gene> genesInChr = new ArrayList<Gene>(genes.length / 2);
+		for (Gene g : genes) {
+			if (g.getChromosome().equals(chrom))
+				genesInChr.add(g);
+		}
+		Collections.sort(genesInChr);
+
+		ArrayList<GeneWindow> windows = new ArrayList<GeneWindow>();
+		int dataStart = Integer.MAX_VALUE;
+		int dataEnd = 0;
+		int genesBuffered = 0;
+		for (int i = 0; i < genesInChr.size(); ++i) {
+			Gene g = genesInChr.get(i);
+
+			/* Compute the data range of multiple genes */
+			if (dataEnd < g.getEnd())
+				dataEnd = g.getEnd();
+			if (dataStart > g.getStart())
+				dataStart = g.getStart();
+
+			/* Accumulate the range until it is over the buffersize */
+			if (!MainCmdline.streaming
+					&& (dataEnd - dataStart) < MainCmdline.processBufferSize
+					&& i < (genesInChr.size() - 1))
+				continue;
+
+			windows.add(new GeneWindow(chrom, genesInChr.subList(
+					genesBuffered, i + 1), dataStart, dataEnd));
+			dataStart = Integer.MAX_VALUE;
+			dataEnd = 0;
+			genesBuffered = i + 1;
+		}
+		if (windows.size() > 0)
+			windows.get(windows.size() - 1).lastInChromosome = true;
+		return windows;
+	}
+
+	/**
+	 * Read the sequence of the window from the reference, e.g. the Fasta
+	 * file, or a view of the packed genome decoding only the bases read. If
+	 * <code>Sparse_Fetch</code> is on, only the exons of the transcripts
+	 * generating reads are read.
+	 *
+	 * The reference is read once, and shared by the haplotypes of all
+	 * samples.
+	 *
+	 * @return the sequence buffer of each haplotype of each sample of the
+	 *         window, including structure variants and single-nucleotide
+	 *         variants if they are allowed; the
+	 *         haplotype h of the sample s is at s * <code>Ploidy</code> + h
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public SequenceBuffer[] fetch() throws IOException {
+		CharSequence raw = null;
+		if (MainCmdline.sparseFetch)
+			raw = fetchExons();
+		else
+			raw = MainCmdline.reference.get(chrom, start, end);
+		if (Config.get("SV_Allowed").equalsIgnoreCase("Yes"))
+			return MainCmdline.haplotypesOf(chrom, raw, start, end);
+		return new SequenceBuffer[] { new SequenceBuffer(raw, start) };
+	}
+
+	/**
+	 * Read the union of the exons of the transcripts generating reads in the
+	 * window. Introns, intergenic regions and the genes not expressed are
+	 * skipped.
+	 *
+	 * @return the sequence of the window, of which only the exons are known
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	private SparseSequence fetchExons() throws IOException {
+		ArrayList<Exon> exons = new ArrayList<Exon>();
+		for (Gene g : genes) {
+			for (Transcript t : g.getTranscripts()) {
+				if (pairsOf(t) > 0)
+					exons.addAll(t.getExons());
+			}
+		}
+		Collections.sort(exons);
+
+		/* Merge the overlapping or adjacent exons */
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		ArrayList<CharSequence> parts = new ArrayList<CharSequence>();
+		int i = 0;
+		while (i < exons.size()) {
+			int s = exons.get(i).getStart();
+			int e = exons.get(i).getEnd();
+			for (++i; i < exons.size() && exons.get(i).getStart() <= e + 1; ++i)
+				e = Math.max(e, exons.get(i).getEnd());
+			starts.add(s - start);
+			parts.add(MainCmdline.reference.get(chrom, s, e));
+		}
+
+		int[] offsets = new int[starts.size()];
+		for (int k = 0; k < offsets.length; ++k)
+			offsets[k] = starts.get(k);
+		return new SparseSequence(end - start + 1, offsets,
+				parts.toArray(new CharSequence[parts.size()]));
+	}
+
+	/**
+	 * Compute the number of read pairs to be generated from a transcript,
+	 * which is determined by its abundance and its length.
+	 *
+	 * @param t the transcript
+	 * @return the number of read pairs, or -1 if the transcript is not
+	 *         expressed
+	 */
+	public static int pairsOf(Transcript t) {
+		Double abundance = MainCmdline.abundancePool.get(t.getId());
+		if (abundance == null)
+			return -1;
+		double coverage = abundance * MainCmdline.coverageFactor;
+		return (int) Math.floor(coverage * t.getLength()
+				/ (MainCmdline.readLength * 2));
+	}
+
+	/**
+	 * Compute the number of read pairs of a transcript generated from one of
+	 * its haplotypes. The first haplotype takes the fraction
+	 * <code>Allelic_Ratio</code> of the read pairs, rounded, and the second
+	 * one takes the rest.
+	 *
+	 * @param pairs the number of read pairs of the transcript
+	 * @param h the haplotype
+	 * @param ploidy the number of haplotypes
+	 * @return the number of read pairs of the haplotype
+	 */
+	public static int pairsOfHaplotype(int pairs, int h, int ploidy) {
+		if (ploidy == 1 || pairs <= 0)
+			return pairs;
+		int first = (int) Math.round(pairs * MainCmdline.allelicRatio);
+		return h == 0 ? first : pairs - first;
+	}
+
+	/**
+	 * Get the random number stream of a chunk, identified by its
+	 * transcript, its part number and, with more than one sample, its
+	 * sample.
+	 */
+	private static SplittableRandom random(Transcript t, int sample, int part) {
+		if (MainCmdline.samples.length > 1)
+			return MainCmdline.rng.get("reads", MainCmdline.samples[sample],
+					t.getId(), Integer.toString(part));
+		return MainCmdline.rng.get("reads", t.getId(), Integer.toString(part));
+	}
+
+	/**
+	 * Split the reads to be generated in the window into chunks. The number
+	 * of read pairs of an expressed transcript is given by
+	 * <code>pairsOf</code>, and a chunk contains at most
+	 * <code>Batch_Size</code> pairs of one transcript. The random numbers of
+	 * a chunk come from the stream identified by its transcript id and its
+	 * part number in the transcript.
+	 * The window always has at least one chunk, so the last chunk can mark
+	 * the end of the window.
+	 * The sequences of the exons are kept in a cache of
+	 * <code>Exon_Cache_Size</code> bytes while the window is split, so the
+	 * exons shared by isoforms are extracted once.
+	 * With two haplotypes, the read pairs of a transcript are split between
+	 * them by <code>Allelic_Ratio</code>, and the part numbers go on from
+	 * the chunks of the first haplotype to those of the second.
+	 * With more than one sample, each sample has all the read pairs of the
+	 * transcript, and the random numbers of its chunks come from streams
+	 * identified by the sample name as well.
+	 *
+	 * @param buffers the sequence buffer of each haplotype of each sample of
+	 *            the window, as given by <code>fetch</code>
+	 * @return the chunks of the window, in the output order
+	 */
+	public ArrayList<ReadChunk> split(SequenceBuffer[] buffers) {
+		ArrayList<ReadChunk> chunks = new ArrayList<ReadChunk>();
+		ExonCache[] caches = new ExonCache[buffers.length];
+		for (int b = 0; b < buffers.length; ++b)
+			caches[b] = new ExonCache(buffers[b], MainCmdline.exonCacheSize);
+
+		for (Gene g : genes) {
+			for (Transcript t : g.getTranscripts()) {
+				int maxTimes = pairsOf(t);
+				if (maxTimes < 0)
+					continue;
+
+				int part = 0;
+				for (int b = 0; b < buffers.length; ++b) {
+					int sample = b / MainCmdline.ploidy;
+					int h = b % MainCmdline.ploidy;
+					/* The parts of a sample go on over its haplotypes */
+					if (h == 0)
+						part = 0;
+					int hapPairs = pairsOfHaplotype(maxTimes, h,
+							MainCmdline.ploidy);
+					/* A transcript without reads still has one chunk */
+					if (hapPairs == 0 && (h > 0 || maxTimes > 0))
+						continue;
+
+					/* Get a transcript sequence, if reads are generated */
+					CharSequence seq = hapPairs > 0 ? t.getSequence(caches[b])
+							: null;
+					int[] offsets = hapPairs > 0 ? t.offsetsIn(buffers[b])
+							: null;
+
+					int done = 0;
+					do {
+						int pairs = Math.min(MainCmdline.batchSize, hapPairs
+								- done);
+						ReadChunk chunk = new ReadChunk(this, chunks.size(), t,
+								seq, buffers[b], offsets, pairs, sample == 0
+										&& part == 0, random(t, sample,
+										part++));
+						chunk.sample = sample;
+						chunk.haplotype = h;
+						chunks.add(chunk);
+						done += pairs;
+					} while (done < hapPairs);
+				}
+			}
+		}
+		for (ExonCache cache : caches)
+			cache.close();
+
+		if (chunks.size() == 0)
+			chunks.add(endMarker());
+		chunks.get(chunks.size() - 1).last = true;
+		return chunks;
+	}
+
+	/**
+	 * Fetch the sequence of the window and split it into chunks, when windows
+	 * are processed concurrently. When a runtime exception occurs, the
+	 * chromosome is marked as failed, and the window and the windows of the
+	 * chromosome not yet started are skipped.
+	 *
+	 * @param failedChroms the chromosomes that failed, shared by all threads
+	 * @return the chunks of the window, in the output order
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public ArrayList<ReadChunk> load(Set<String> failedChroms)
+			throws IOException {
+		if (!failedChroms.contains(chrom)) {
+			try {
+				return split(fetch());
+			} catch (RuntimeException e) {
+				System.out.print(e.getMessage());
+				// When runtime exception occurs, stop running on the
+				// chromosome.
+				failedChroms.add(chrom);
+			}
+		}
+		failed = true;
+		ArrayList<ReadChunk> chunks = new ArrayList<ReadChunk>(1);
+		chunks.add(endMarker());
+		return chunks;
+	}
+
+	/**
+	 * Get an empty chunk marking the end of the window, e.g. when the window
+	 * is skipped.
+	 *
+	 * @return the last chunk of the window
+	 */
+	public ReadChunk endMarker() {
+		ReadChunk chunk = new ReadChunk(this, 0, null, null, null, null, 0,
+				false, null);
+		chunk.last = true;
+		return chunk;
+	}
+
+	/**
+	 * Get the chromosome of the window
+	 *
+	 * @return the chromosome
+	 */
+	public String getChromosome() {
+		return chrom;
+	}
+
+	/**
+	 * Get the number of genes in the window
+	 *
+	 * @return the number of genes
+	 */
+	public int getNumOfGenes() {
+		return genes.size();
+	}
+}
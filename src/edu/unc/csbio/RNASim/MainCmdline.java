@@ -2,6 +2,10 @@ package edu.unc.csbio.RNASim;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.TDistributionImpl;
@@ -103,9 +107,46 @@ public class MainCmdline {
 	 */
 	static TreeSet<String> chromPool = null;
 	/**
-	 * an array that stores the structure variants
+	 * the structure variants of each haplotype of each sample, by
+	 * chromosome; the haplotype h of the sample s is at s * ploidy + h
 	 */
-	static HashMap<String, ArrayList<Feature>> svPool = null;	
+	static ArrayList<HashMap<String, ArrayList<Feature>>> svPools = null;
+	/**
+	 * the single-nucleotide variants of each haplotype of each sample, by
+	 * chromosome, in the same order as <code>svPools</code>
+	 */
+	static ArrayList<HashMap<String, SNVList>> snvPools = null;
+	/**
+	 * the reader of the structure variant file if it has a tabix index, so
+	 * the structure variants of each window are read when it is fetched
+	 * instead of being kept in <code>svPools</code>
+	 */
+	static VCFReader svIndex = null;
+	/**
+	 * the samples simulated, which share the reads of the reference
+	 */
+	static String[] samples = new String[0];
+	/**
+	 * the number of haplotypes simulated
+	 */
+	static int ploidy = 1;
+	/**
+	 * the fraction of the read pairs of a transcript generated from the
+	 * first haplotype
+	 */
+	static double allelicRatio = 0.5;
+	/**
+	 * the source of the bases of the genome, shared by all threads
+	 */
+	static SequenceSource reference = null;
+	/**
+	 * whether each chromosome is read once, front to back, gene by gene
+	 */
+	static boolean streaming = false;
+	/**
+	 * whether only the exons of the expressed transcripts are read
+	 */
+	static boolean sparseFetch = true;
 	/**
 	 * an array that stores the genes
 	 */
@@ -113,15 +154,11 @@ public class MainCmdline {
 	/**
 	 * the file location of fq writer file (for first pair end read)
 	 */
-	static FqWriter out1 = null;
+	static FqWriter[] out1 = null;
 	/**
 	 * the file location of fq writer file (for second pair end read)
 	 */
-	static FqWriter out2 = null;
-	/**
-	 * a qualityGenerator
-	 */
-	static QualityGenerator qg = null;
+	static FqWriter[] out2 = null;
 	/**
 	 * total number of the reads
 	 */
@@ -135,17 +172,54 @@ public class MainCmdline {
 	 */
 	static long totalTranscripts = 0;
 	/**
-	 * total number of reads in a chromosome
+	 * number of worker threads generating reads
+	 */
+	static int workerThreads = 1;
+	/**
+	 * the streams of random numbers of the whole program
+	 */
+	static RandomStreams rng = null;
+	/**
+	 * how the work is divided among threads, Chromosome, Pipeline or
+	 * Transcript
+	 */
+	static String parallelMode = "Chromosome";
+	/**
+	 * number of threads of the window fetch, fragment sampling, error
+	 * injection and record encoding stages in the Pipeline mode
 	 */
-	static long totalReadsByChrom = 0;
+	static int[] pipelineThreads = { 1, 1, 1, 1 };
 	/**
-	 * total number of transcripts in a chromosome
+	 * capacity of the queue of each stage in the Pipeline mode
 	 */
-	static long totalTranscriptsByChrom = 0;
+	static int pipelineQueueSize = 16;
 	/**
-	 * total number of genes in a chromosome
+	 * interval of printing the statistics of stages in the Pipeline mode, in
+	 * seconds
 	 */
-	static long totalGenesByChrom = 0;
+	static int pipelineReportInterval = 0;
+	/**
+	 * maximum number of read pairs of a transcript generated as one unit of
+	 * work
+	 */
+	static int batchSize = 1024;
+	/**
+	 * maximum number of bytes of the exon sequences cached for a window
+	 */
+	static long exonCacheSize = 16777216;
+	/**
+	 * whether to flip and reverse one of the ends of the reads
+	 */
+	static boolean flipAndReverse = true;
+	/**
+	 * the probability of changing a base-pair
+	 */
+	static double unknownFactor = 0;
+	/**
+	 * the empirical error model changing the bases by quality scores, or null
+	 * for the Phred error probabilities
+	 */
+	static ErrorModel errorModel = null;
 
 	/**
 	 * the method to print out the run time of the program
@@ -168,13 +242,14 @@ public class MainCmdline {
 	/**
 	 * given an array, this method sequentially changes a position with another
 	 * randomly selected position, for n times, where n is the size of array.
+	 * 
+	 * @param array the array to be shuffled
+	 * @param r the random number stream of the caller
 	 */
-	public static void shuffle(Object[] array) {
-		Random r;
+	public static void shuffle(Object[] array, SplittableRandom r) {
 		int j;
 		Object tmp = null;
 		for (int i = array.length - 1; i >= 1; --i) {
-			r = new Random();
 			j = r.nextInt(i + 1);
 			tmp = array[i];
 			array[i] = array[j];
@@ -216,6 +291,63 @@ public class MainCmdline {
 		inputBufferSize = Integer.parseInt(Config.get("Input_Buffer_Size"));
 		outputBufferSize = Integer.parseInt(Config.get("Output_Buffer_Size"));
 		processBufferSize = Long.parseLong(Config.get("Process_Window_Size"));
+
+		flipAndReverse = Config.get("Flip_And_Reverse").equals("Yes");
+		unknownFactor = Double.parseDouble(Config.get("Unknown_Factor"));
+
+		workerThreads = Integer.parseInt(Config.get("Worker_Threads"));
+		if (workerThreads < 1)
+			workerThreads = Runtime.getRuntime().availableProcessors();
+		long randomSeed = System.nanoTime();
+		if (Config.get("Random_Seed").length() > 0)
+			randomSeed = Long.parseLong(Config.get("Random_Seed"));
+		rng = new RandomStreams(randomSeed);
+		System.out.println("Random seed: " + randomSeed);
+
+		parallelMode = Config.get("Parallel_Mode");
+		if (!parallelMode.equals("Chromosome")
+				&& !parallelMode.equals("Pipeline")
+				&& !parallelMode.equals("Transcript"))
+			throw (new RuntimeException("Unknown parallel mode "
+					+ parallelMode + "."));
+		String[] stageThreads = Config.get("Pipeline_Threads").split(",");
+		if (stageThreads.length != pipelineThreads.length)
+			throw (new RuntimeException("Pipeline_Threads needs "
+					+ pipelineThreads.length + " values."));
+		for (int i = 0; i < pipelineThreads.length; ++i)
+			pipelineThreads[i] = Integer.parseInt(stageThreads[i].trim());
+		pipelineQueueSize = Integer.parseInt(Config.get("Pipeline_Queue_Size"));
+		pipelineReportInterval = Integer.parseInt(Config
+				.get("Pipeline_Report_Interval"));
+		if (!Config.get("Genome_Store").equals("Fasta")
+				&& !Config.get("Genome_Store").equals("Packed"))
+			throw (new RuntimeException("Unknown genome store "
+					+ Config.get("Genome_Store") + "."));
+		if (!Config.get("Fetch_Mode").equals("Window")
+				&& !Config.get("Fetch_Mode").equals("Streaming"))
+			throw (new RuntimeException("Unknown fetch mode "
+					+ Config.get("Fetch_Mode") + "."));
+		streaming = Config.get("Fetch_Mode").equals("Streaming");
+		sparseFetch = Config.get("Sparse_Fetch").equals("Yes");
+		batchSize = Integer.parseInt(Config.get("Batch_Size"));
+		if (batchSize < 1)
+			throw (new RuntimeException("Batch_Size must be positive."));
+		if (Config.get("SV_Allowed").equalsIgnoreCase("Yes")) {
+			samples = Config.get("SV_Sample").split(",");
+			for (int i = 0; i < samples.length; ++i)
+				samples[i] = samples[i].trim();
+		}
+		ploidy = Integer.parseInt(Config.get("Ploidy"));
+		if (ploidy != 1 && ploidy != 2)
+			throw (new RuntimeException("Ploidy must be 1 or 2."));
+		if (ploidy == 2 && !Config.get("SV_Allowed").equalsIgnoreCase("Yes"))
+			throw (new RuntimeException("Ploidy 2 requires SV_Allowed=Yes."));
+		allelicRatio = Double.parseDouble(Config.get("Allelic_Ratio"));
+		if (allelicRatio < 0 || allelicRatio > 1)
+			throw (new RuntimeException("Allelic_Ratio must be in [0, 1]."));
+		exonCacheSize = Long.parseLong(Config.get("Exon_Cache_Size"));
+		if (exonCacheSize < 0)
+			throw (new RuntimeException("Exon_Cache_Size must not be negative."));
 	}
 	
 	public static void ReadBlacklist() {
@@ -337,6 +469,10 @@ public class MainCmdline {
 			abort(e);
 		}
 
+		/* No exon is added afterwards */
+		for (Transcript t : transcriptPool.values())
+			t.freeze();
+
 		genes = genePool.values().toArray(new Gene[0]);
 
 		// System.out.println("Sorting Genes ... ");
@@ -360,12 +496,12 @@ public class MainCmdline {
 
 			TDistributionImpl tDist = new TDistributionImpl(tDistDOF);
 
-			Random r = new Random();
+			SplittableRandom r = rng.get("abundance");
 			double abundance = 0;
 			double prob = 0;
 
 			String[] tidArray = transcriptPool.keySet().toArray(new String[0]);
-			shuffle(tidArray);
+			shuffle(tidArray, r);
 
 			int expressionCount = (int) (tidArray.length * expressionPercentage);
 
@@ -459,54 +595,98 @@ public class MainCmdline {
 		System.out.println("Reading Structure Variant File [" + Config.get("SV_File")
 				+ "] for Sample ["+Config.get("SV_Sample")+"] ... ");
 		
-		svPool = new HashMap<String, ArrayList<Feature>>();
+		svPools = new ArrayList<HashMap<String, ArrayList<Feature>>>();
+		snvPools = new ArrayList<HashMap<String, SNVList>>();
+		for (int h = 0; h < samples.length * ploidy; ++h) {
+			svPools.add(new HashMap<String, ArrayList<Feature>>());
+			snvPools.add(new HashMap<String, SNVList>());
+		}
 				
 		int numOfLines = 0;
 		int numOfInsertions = 0;
 		int numOfDeletions = 0;
+		int numOfSubstitutions = 0;
 		int numOfSVs = 0;
+		int numOfSNVs = 0;
 		try {
-			VCFReader vcf = new VCFReader(Config.get("SV_File"),Config.get("SV_Sample"));
-			Feature sv = null;
+			VCFReader vcf = new VCFReader(Config.get("SV_File"), samples);
+			if (vcf.isIndexed()) {
+				System.out.println("Indexed file; structure variants are read by window.");
+				svIndex = vcf;
+				printRuntime();
+				return;
+			}
+			Feature[][] genotypes = null;
 			try {
-				while ((sv = vcf.readNext()) != null) {
+				while ((genotypes = vcf.readNextGenotypes()) != null) {
 					if (numOfLines % 10000 == 0)
 						System.out.print((numOfLines + 1) + " ");
 					++numOfLines;
 					
-					// System.out.println(vcf.sampleColumn);
-					if ( (!chromMatching.equals("Exact") && sv.getChromosome().matches(chrom))
-						|| (chromMatching.equals("Exact") && sv.getChromosome().equals(chrom))) {
-						if (!svPool.containsKey(sv.getChromosome())) {
-							ArrayList<Feature> al = new ArrayList<Feature>();
-							al.add(sv);							
-							svPool.put(sv.getChromosome(), al);							
-						}
-						else {							
-							svPool.get(sv.getChromosome()).add(sv);
+					/*
+					 * The alleles of the genotype go to the haplotypes in
+					 * their order; a haploid sample only uses the first one.
+					 */
+					for (int k = 0; k < samples.length * ploidy; ++k) {
+						Feature[] alleles = genotypes[k / ploidy];
+						int h = k % ploidy;
+						if (h >= alleles.length)
+							continue;
+						Feature sv = alleles[h];
+						if (sv == null)
+							continue;
+						// System.out.println(vcf.sampleColumn);
+						if ( (!chromMatching.equals("Exact") && sv.getChromosome().matches(chrom))
+							|| (chromMatching.equals("Exact") && sv.getChromosome().equals(chrom))) {
+							HashMap<String, ArrayList<Feature>> svPool = svPools.get(k);
+							if (sv instanceof Substitution) {
+								HashMap<String, SNVList> snvPool = snvPools.get(k);
+								if (!snvPool.containsKey(sv.getChromosome()))
+									snvPool.put(sv.getChromosome(), new SNVList());
+								snvPool.get(sv.getChromosome()).add((Substitution) sv);
+							}
+							else if (!svPool.containsKey(sv.getChromosome())) {
+								ArrayList<Feature> al = new ArrayList<Feature>();
+								al.add(sv);							
+								svPool.put(sv.getChromosome(), al);							
+							}
+							else {							
+								svPool.get(sv.getChromosome()).add(sv);
+							}
 						}
+						
+						if (sv instanceof Deletion)
+							++numOfDeletions;
+						else if (sv instanceof Insertion)
+							++numOfInsertions;
+						else if (sv instanceof Substitution)
+							++numOfSubstitutions;
 					}
-					
-					if (sv.getClass().getSimpleName().equals("Deletion"))
-						++numOfDeletions;
-					else if (sv.getClass().getSimpleName().equals("Insertion"))
-						++numOfInsertions;
 				}
 			} finally{
 				vcf.close();
 			}			
-			for(ArrayList<Feature> al : svPool.values()){
-				numOfSVs += al.size();
-			}
+			for (HashMap<String, ArrayList<Feature>> svPool : svPools)
+				for(ArrayList<Feature> al : svPool.values()){
+					numOfSVs += al.size();
+				}
+			for (HashMap<String, SNVList> snvPool : snvPools)
+				for (SNVList snvs : snvPool.values()) {
+					snvs.sort();
+					numOfSNVs += snvs.size();
+				}
 			System.out.println();
 			System.out.println(numOfLines + " lines read.");
 			System.out.println(numOfSVs+" structure variants after filtering.");
+			System.out.println(numOfSNVs+" single-nucleotide variants after filtering.");
 			System.out.print(numOfDeletions+" deletions, ");
-			System.out.println(numOfInsertions+" insertions.");
+			System.out.print(numOfInsertions+" insertions, ");
+			System.out.println(numOfSubstitutions+" substitutions.");
 			
-			for (ArrayList<Feature> al : svPool.values()) {
-				Collections.sort(al);
-			}
+			for (HashMap<String, ArrayList<Feature>> svPool : svPools)
+				for (ArrayList<Feature> al : svPool.values()) {
+					Collections.sort(al);
+				}
 			printRuntime();						
 			
 		} catch (IOException e) {
@@ -517,231 +697,195 @@ public class MainCmdline {
 	}
 
 	/**
-	 * given a gene, this method generates read and appends read information to
-	 * output fq file
+	 * Build the sequence buffer of each haplotype of each sample of a window,
+	 * with its single-nucleotide variants applied to the reference in one
+	 * pass, and its structure variants on top of them. The variants are read
+	 * from the indexed structure variant file if there is one, or from
+	 * <code>svPools</code> and <code>snvPools</code>. The region read from
+	 * the index is widened by one base on the left, so the insertions after
+	 * the first base of the window, which start at the base before, are
+	 * included.
 	 * 
-	 * @param g
-	 *            A <code>Gene</code> object
-	 * @param buffer
-	 *            A <code>SequenceBuffer</code> object
+	 * @param chr the chromosome
+	 * @param raw the reference sequence of the window
+	 * @param start the 1-based start position of the window
+	 * @param end the 1-based end position of the window, inclusive
+	 * @return the sequence buffer of each haplotype; the haplotype h of the
+	 *         sample s is at s * ploidy + h
 	 * @throws IOException
 	 *             if an input or output exception occurred
 	 */
-	public static void GenerateSequenceForSingleGene(Gene g,
-			SequenceBuffer buffer) throws IOException {
-
-		String chromosome = g.getChromosome();
-		Random random = new Random();
-		ArrayList<Transcript> ts = g.getTranscripts();
-
-		for (Transcript t : ts) {
-			double coverage = 0;
-			if (abundancePool.containsKey(t.getId()))
-				coverage = abundancePool.get(t.getId()) * coverageFactor;
-			else
-				continue;
-
-			/* Get a transcript sequence */
-			String seq = t.getSequence(buffer);
-			// System.out.println("Transcript "+ts.get(j).getStart()+"..."+ts.get(j).getEnd());
-			// System.out.println(seq);
+	static SequenceBuffer[] haplotypesOf(String chr, CharSequence raw,
+			int start, int end) throws IOException {
+		int n = samples.length * ploidy;
+		SequenceBuffer[] buffers = new SequenceBuffer[n];
+		if (svIndex == null) {
+			for (int k = 0; k < n; ++k) {
+				SNVList snvs = snvPools.get(k).get(chr);
+				buffers[k] = new ExtendedSequenceBuffer(snvs == null ? raw
+						: snvs.apply(raw, start), start, svPools.get(k).get(chr));
+			}
+			return buffers;
+		}
 
-			ReadGenerator rg = new ReadGenerator(readLength, fragMinLength,
-					fragMaxLength);
+		ArrayList<ArrayList<Feature>> variants = new ArrayList<ArrayList<Feature>>();
+		SNVList[] snvs = new SNVList[n];
+		for (int k = 0; k < n; ++k) {
+			variants.add(new ArrayList<Feature>());
+			snvs[k] = new SNVList();
+		}
+		for (Feature[][] genotypes : svIndex.query(chr, start - 1, end)) {
+			for (int k = 0; k < n; ++k) {
+				Feature[] alleles = genotypes[k / ploidy];
+				int h = k % ploidy;
+				if (h >= alleles.length || alleles[h] == null)
+					continue;
+				if (alleles[h] instanceof Substitution)
+					snvs[k].add((Substitution) alleles[h]);
+				else
+					variants.get(k).add(alleles[h]);
+			}
+		}
+		for (int k = 0; k < n; ++k) {
+			Collections.sort(variants.get(k));
+			snvs[k].sort();
+			buffers[k] = new ExtendedSequenceBuffer(snvs[k].apply(raw, start),
+					start, variants.get(k));
+		}
+		return buffers;
+	}
 
-			/* Generate reads from a transcript sequence */
-			int maxTimes = (int) Math.floor(coverage * t.getLength()
-					/ (readLength * 2));
+	/**
+	 * this method prints out total genes, reads and transcripts associated
+	 * with a finished chromosome, and adds them to the totals.
+	 * 
+	 * @param genes
+	 *            number of genes processed in the chromosome
+	 * @param transcripts
+	 *            number of transcripts processed in the chromosome
+	 * @param reads
+	 *            number of reads generated in the chromosome
+	 */
+	static void ReportChromosome(long genes, long transcripts, long reads) {
+		totalGenes += genes;
+		totalTranscripts += transcripts;
+		totalReads += reads;
 
-			// System.out.println(maxTimes);
-			for (int times = 0; times < maxTimes; ++times) {
-				Read[] r = null;
-				String[] qs = null;				
-				try {
-					r = rg.generate(seq);
-					if (r == null)
-						continue;
+		System.out.println();
+		System.out.println(genes + " genes processed.");
+		System.out.println(transcripts + " transcripts processed.");
+		System.out.println(reads + " reads generated.");
+		printRuntime();
+	}
 
-					// System.out.println(r[0].sequence);
-					qs = qg.generate(r);					
-					
-					if (Config.get("Flip_And_Reverse").equals("Yes"))
-						ReadModifier.flipAndReverse(r);
-					ReadModifier.modifyByQualityScoreAlt(r,qs);
-					ReadModifier.modifyByProbability(r,Double.parseDouble(Config.get("Unknown_Factor")));
-				} catch (RuntimeException e) {
-					System.out.println("Error occurs in generating read.");
-					e.printStackTrace();
-					continue;
-				}				
-								
-				
-				// Output reads
-				StringBuilder idsb = new StringBuilder();
-
-				idsb.append(IDPREFIX);
-				idsb.append(random.nextInt(10000));
-				idsb.append(":");
-				idsb.append(chromosome);
-				idsb.append(":");
-				idsb.append(t.refPos(r[0].offset));
-				idsb.append(":");
-				idsb.append(t.refPos(r[1].offset));
-				idsb.append(":");								
-				idsb.append(r[0].getStrand());
-				idsb.append(":");
-				idsb.append(r[1].getStrand());
-				idsb.append(":");
-				idsb.append(r[0].getChanges());
-				idsb.append(":");
-				idsb.append(r[1].getChanges());
-				
-				String readId = idsb.toString();
-
-				StringBuilder sb1 = new StringBuilder(readLength * 4);
-				sb1.append("@");
-				sb1.append(readId);
-				sb1.append("/1\n");
-				sb1.append(r[0].sequence);
-				sb1.append("\n");
-				sb1.append("+");
-				sb1.append(readId);
-				sb1.append("/1\n");
-				sb1.append(qs[0]);
-				sb1.append("\n");
-
-				StringBuilder sb2 = new StringBuilder(readLength * 4);
-				sb2.append("@");
-				sb2.append(readId);
-				sb2.append("/2\n");
-				sb2.append(r[1].sequence);
-				sb2.append("\n");
-				sb2.append("+");
-				sb2.append(readId);
-				sb2.append("/2\n");
-				sb2.append(qs[1]);
-				sb2.append("\n");
-
-				out1.print(sb1.toString());
-				out2.print(sb2.toString());
-
-				++totalReadsByChrom;
-			} // for times
-			++totalTranscriptsByChrom;
-		} // for each transcript
+	/**
+	 * this method prints out the statistics of a finished
+	 * <code>ChromosomeTask</code>, and adds them to the totals.
+	 * 
+	 * @param task
+	 *            a finished <code>ChromosomeTask</code>
+	 */
+	private static void ReportChromosome(ChromosomeTask task) {
+		ReportChromosome(task.totalGenes, task.totalTranscripts,
+				task.totalReads);
 	}
 
 	/**
-	 * Given a chromosome, this method call
-	 * <code>public static void GenerateSequenceForSingleGene(Gene g,
-			SequenceBuffer buffer) throws IOException</code> on all genes of that
-	 * chromosome, and prints out total genes, reads and transcripts associated
-	 * with chromosome.
+	 * this method processes the chromosomes one by one, writing the reads
+	 * to the output directly.
 	 * 
-	 * @param chrom
-	 *            A chromosome
 	 * @throws IOException
 	 *             if an input or output exception occurred
 	 */
-	public static void GenerateSequenceForGenes(String chrom)
-			throws IOException {
-
-		System.out.println("Generating Sequences for Chromosome " + chrom
-				+ " ... ");
-
-		int dataStart = Integer.MAX_VALUE;
-		int dataEnd = 0;
-		int genesBuffered = 0;
-
-		totalGenesByChrom = 0;
-		totalTranscriptsByChrom = 0;
-		totalReadsByChrom = 0;
-
-		ArrayList<Gene> genesInChr = new ArrayList<Gene>(genes.length / 2);
-
-		for (Gene g : genes) {
-			if (g.getChromosome().equals(chrom))
-				genesInChr.add(g);
+	private static void GenerateSequenceSerially() throws IOException {
+		for (String chrom : chromPool) {
+			ChromosomeTask task = new ChromosomeTask(chrom, out1, out2);
+			ReportChromosome(task.call());
 		}
+	}
 
-		// System.out.println(chrom);
-		// System.out.println(genesInChr.size());
-
-		Collections.sort(genesInChr);
-
-		for (int i = 0; i < genesInChr.size(); ++i) {
-			// System.out.println(genes[i].getRange());
-			// System.out.println(genes[i].getStart());
-			// System.out.println(genes[i].getEnd());
-			// System.out.println();
-
-			Gene g = genesInChr.get(i);
-
-			/* Compute the data range of multiple genes */
-			if (dataEnd < g.getEnd())
-				dataEnd = g.getEnd();
-			if (dataStart > g.getStart())
-				dataStart = g.getStart();
-
-			/* Accumulate the range until it is over the buffersize */
-			if ((dataEnd - dataStart) < processBufferSize
-					&& i < (genesInChr.size() - 1))
-				continue;
-
-			// System.out.print("["+(i+1-genesDone)+"]");
+	/**
+	 * this method processes the chromosomes concurrently on
+	 * <code>workerThreads</code> threads. Each chromosome is written to its
+	 * own spool files, which are appended to the output in the order of
+	 * <code>chromPool</code> as soon as all chromosomes before them are done,
+	 * so the output is the same as the one of a serial run.
+	 * 
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	private static void GenerateSequenceInParallel() throws IOException {
+		File spoolDir = new File(Config.get("Output_Fastq_1"))
+				.getAbsoluteFile().getParentFile();
+		ExecutorService pool = Executors.newFixedThreadPool(workerThreads);
+		ArrayList<Future<ChromosomeTask>> futures = new ArrayList<Future<ChromosomeTask>>();
+		ArrayList<File> spools = new ArrayList<File>();
 
-			/*
-			 * To avoid reading the .fa file many times, use a buffer to read
-			 * data for multiple genes each time.
-			 */
-			SequenceBuffer buffer = null;
+		try {
+			for (String chrom : chromPool) {
+				File[] spool1 = new File[out1.length];
+				File[] spool2 = new File[out2.length];
+				for (int i = 0; i < out1.length; ++i) {
+					spool1[i] = File.createTempFile("RNAseqSim-", ".1.fq",
+							spoolDir);
+					spools.add(spool1[i]);
+					spool2[i] = File.createTempFile("RNAseqSim-", ".2.fq",
+							spoolDir);
+					spools.add(spool2[i]);
+				}
+				futures.add(pool.submit(new ChromosomeTask(chrom, spool1,
+						spool2)));
+			}
 
-			try {
-				if (Config.get("SV_Allowed").equalsIgnoreCase("Yes")) {					
-					buffer = new ExtendedSequenceBuffer(BigFaReader.getData(chrom,
-							dataStart, dataEnd), dataStart, svPool.get(chrom));
+			/* Reorder stage: append the spool files in chromosome order. */
+			for (Future<ChromosomeTask> future : futures) {
+				ChromosomeTask task = null;
+				try {
+					task = future.get();
+				} catch (InterruptedException e) {
+					throw (new IOException(e));
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException)
+						throw ((IOException) e.getCause());
+					throw (new RuntimeException(e.getCause()));
 				}
-				else 
-					buffer = new SequenceBuffer(BigFaReader.getData(chrom,
-						dataStart, dataEnd), dataStart);
-				// String buffer2 = FaReader.getData(Config.get("FASTA_File"),
-				// dataStart, dataEnd);
-
-				/*
-				 * Using ExtendedSequenceBuffer later to support Structure
-				 * Variant
-				 */
-
-				for (int k = genesBuffered; k < (i + 1); ++k) {
-					g = genesInChr.get(k);
-					GenerateSequenceForSingleGene(g, buffer);
-					// System.out.println("Gene " + (k + 1) + " " + g.getStart()
-					// + "..." + g.getEnd());
-					totalGenesByChrom++;
-					if (totalGenesByChrom % 100 == 1)
-						System.out.print(totalGenesByChrom + " ");
+				for (int i = 0; i < out1.length; ++i) {
+					out1[i].append(task.getSpool1()[i]);
+					out2[i].append(task.getSpool2()[i]);
+					task.getSpool1()[i].delete();
+					task.getSpool2()[i].delete();
 				}
-			} catch (RuntimeException e) {
-				System.out.print(e.getMessage());
-				// When runtime exception occurs, stop running on the
-				// chromosome.
-				break;
-			} finally {
-				dataStart = Integer.MAX_VALUE;
-				dataEnd = 0;
-				genesBuffered = i + 1;
-			}
-		} // for i
 
-		totalGenes += totalGenesByChrom;
-		totalTranscripts += totalTranscriptsByChrom;
-		totalReads += totalReadsByChrom;
+				System.out.print("Chromosome " + task.getChromosome()
+						+ " done.");
+				ReportChromosome(task);
+			}
+		} finally {
+			pool.shutdownNow();
+			for (File spool : spools)
+				spool.delete();
+		}
+	}
 
-		System.out.println();
-		System.out.println(totalGenesByChrom + " genes processed.");
-		System.out.println(totalTranscriptsByChrom + " transcripts processed.");
-		System.out.println(totalReadsByChrom + " reads generated.");
-		printRuntime();
+	/**
+	 * this method gives the name of an output file of a sample. With more
+	 * than one sample, the sample name is inserted before the extension,
+	 * e.g. "out.1.fq" becomes "out.1.S1.fq".
+	 * 
+	 * @param file
+	 *            the name of the output file in the configuration
+	 * @param sample
+	 *            the index of the sample
+	 * @return the name of the output file of the sample
+	 */
+	static String outputFile(String file, int sample) {
+		if (samples.length <= 1)
+			return file;
+		int dot = file.lastIndexOf('.');
+		if (dot <= file.lastIndexOf(File.separatorChar) + 1)
+			return file + "." + samples[sample];
+		return file.substring(0, dot) + "." + samples[sample]
+				+ file.substring(dot);
 	}
 
 	/**
@@ -751,25 +895,61 @@ public class MainCmdline {
 		System.out.println("Preparing ...");
 
 		try {
-			new BigFaReader(Config.get("FASTA_File"));
-			System.out.println("FASTA file [" + Config.get("FASTA_File")
-					+ "] in used.");
+			if (Config.get("Genome_Store").equals("Packed")) {
+				reference = PackedGenome.open(Config.get("FASTA_File"));
+				System.out.println("Packed genome of FASTA file ["
+						+ Config.get("FASTA_File") + "] in used.");
+			} else {
+				reference = new BigFaReader(Config.get("FASTA_File"));
+				System.out.println("FASTA file [" + Config.get("FASTA_File")
+						+ "] in used.");
+			}
+			if (streaming) {
+				reference = new StreamingSource(reference);
+				System.out.println("Chromosomes streamed gene by gene.");
+			}
 		} catch (IOException e) {
 			abort(e);
 		}
 
-		qg = QualityGeneratorFactory.CreateQualityGenertor();
 		System.out.println("Quality Score Generator ["
-				+ qg.getClass().getSimpleName() + "] in used.");
+				+ Config.get("Quality_Generator") + "] in used.");
+		if (Config.get("Error_Model").length() > 0) {
+			try {
+				errorModel = ErrorModel.read(Config.get("Error_Model"));
+			} catch (IOException e) {
+				abort(e);
+			}
+			System.out.println("Error model [" + Config.get("Error_Model")
+					+ "] in used, of " + errorModel.getEnds() + " end(s) and "
+					+ errorModel.getCycles() + " cycles.");
+		}
 
 		System.out.println("Min Fragment length: " + fragMinLength);
 		System.out.println("Max Fragment length: " + fragMaxLength);
 		System.out.println("Read length: " + readLength);
-
-		String outFq1 = Config.get("Output_Fastq_1");
-		String outFq2 = Config.get("Output_Fastq_2");
-		System.out.println("Output written to [" + outFq1 + "] and [" + outFq2
-				+ "]");
+		System.out.println("Parallel mode: " + parallelMode);
+		if (parallelMode.equals("Pipeline"))
+			System.out.println("Pipeline threads: "
+					+ Arrays.toString(pipelineThreads));
+		else
+			System.out.println("Worker threads: " + workerThreads);
+		System.out.println("Batch size: " + batchSize);
+		if (ploidy > 1)
+			System.out.println("Ploidy: " + ploidy + ", allelic ratio: "
+					+ allelicRatio);
+		if (samples.length > 1)
+			System.out.println("Samples: " + Arrays.toString(samples));
+
+		int numOfOutputs = Math.max(samples.length, 1);
+		String[] outFq1 = new String[numOfOutputs];
+		String[] outFq2 = new String[numOfOutputs];
+		for (int i = 0; i < numOfOutputs; ++i) {
+			outFq1[i] = outputFile(Config.get("Output_Fastq_1"), i);
+			outFq2[i] = outputFile(Config.get("Output_Fastq_2"), i);
+			System.out.println("Output written to [" + outFq1[i] + "] and ["
+					+ outFq2[i] + "]");
+		}
 		System.out.print(chromPool.size()
 				+ " chromosomes found in annotation: ");
 		for (String chrom : chromPool) {
@@ -778,24 +958,47 @@ public class MainCmdline {
 		System.out.println("\n");
 
 		try {
-			out1 = new FqWriter(outFq1, outputBufferSize);
-			out2 = new FqWriter(outFq2, outputBufferSize);
+			out1 = new FqWriter[numOfOutputs];
+			out2 = new FqWriter[numOfOutputs];
 			try {
-				for (String chrom : chromPool) {
-					GenerateSequenceForGenes(chrom);
+				for (int i = 0; i < numOfOutputs; ++i) {
+					out1[i] = new FqWriter(outFq1[i], outputBufferSize);
+					out2[i] = new FqWriter(outFq2[i], outputBufferSize);
 				}
+				if (parallelMode.equals("Pipeline"))
+					new ReadPipeline(out1, out2, pipelineThreads,
+							pipelineQueueSize).run(chromPool,
+							pipelineReportInterval);
+				else if (parallelMode.equals("Transcript"))
+					new TranscriptScheduler(out1, out2, workerThreads)
+							.run(chromPool);
+				else if (workerThreads > 1 && chromPool.size() > 1)
+					GenerateSequenceInParallel();
+				else
+					GenerateSequenceSerially();
 			} finally {
-				out1.close();
-				out2.close();
+				for (int i = 0; i < numOfOutputs; ++i) {
+					if (out1[i] != null)
+						out1[i].close();
+					if (out2[i] != null)
+						out2[i].close();
+				}
+				if (svIndex != null)
+					svIndex.close();
 			}
 			System.out.println("Finishing ...");
 			System.out.println(totalGenes + " genes processed.");
 			System.out.println(totalTranscripts + " transcripts processed.");
 			System.out.println(totalReads + " reads generated.");
+			if (ExonCache.getTotalHits() + ExonCache.getTotalMisses() > 0)
+				System.out.println("Exon cache: " + ExonCache.getTotalHits()
+						+ " hits, " + ExonCache.getTotalMisses() + " misses.");
 			printRuntime();
 			System.out.println("Done!");
 		} catch (IOException e) {
 			abort(e);
+		} catch (RuntimeException e) {
+			abort(e);
 		}
 	}
 
@@ -828,18 +1031,5 @@ public class MainCmdline {
 			ReadStructureVariant();
 		
 		GenerateSequence();
-		
-		/*
-		Read[] r = new Read[1];
-		r[0]=new Read(10,"AACT");		
-		System.out.println(r[0]);
-		ReadModifier.modifyByProbability(r, 0.5);
-		System.out.println(r[0]);
-		
-		System.out.println(r[0].getChanges());
-		r[0].setStrand(false);
-		System.out.println(r[0]);		
-		System.out.println(r[0].getChanges());
-		*/
 	}
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import edu.unc.csbio.data.ReadBatch;
+
+/**
+ * The class <code>MarkovQualityGenerator</code> extending
+ * <code>QualityGenerator</code> is for generating quality score by the
+ * Markov chain of a <code>QualityModel</code>, trained once from real fq
+ * files, so no real fq file is needed to simulate reads.
+ *
+ * The model is loaded once and shared by all generators. The quality scores
+ * are written straight into the batch, by the random number stream of the
+ * caller.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class MarkovQualityGenerator extends QualityGenerator {
+	/**
+	 * the model of the quality scores
+	 */
+	private final QualityModel model;
+
+	/**
+	 * this is the constructor for object <code>MarkovQualityGenerator</code>
+	 *
+	 * @param _model
+	 *            location of the model file
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public MarkovQualityGenerator(String _model) throws IOException {
+		model = QualityModel.get(_model);
+	}
+
+	/**
+	 * Generate read quality score by the Markov chain of the model.
+	 *
+	 * @param b the batch of reads
+	 * @param random the random number stream of the caller
+	 */
+	@Override
+	public void generate(ReadBatch b, SplittableRandom random) {
+		for (int i = 0; i < b.size; ++i) {
+			if (b.failed[i])
+				continue;
+			model.generate(b, 2 * i, 0, random);
+			model.generate(b, 2 * i + 1, 1, random);
+		}
+	}
+}
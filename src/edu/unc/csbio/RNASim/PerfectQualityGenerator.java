@@ -1,8 +1,9 @@
 package edu.unc.csbio.RNASim;
 
 import java.util.Arrays;
+import java.util.SplittableRandom;
 
-import edu.unc.csbio.data.Read;
+import edu.unc.csbio.data.ReadBatch;
 
 /**
  * The class <code>PerfectQualityGenerator</code> extending
@@ -13,21 +14,18 @@ import edu.unc.csbio.data.Read;
  */
 public class PerfectQualityGenerator extends QualityGenerator {
 	/**
-	 * given a read, this method generates perfect quality score for every
-	 * position of the read
+	 * given a batch of reads, this method generates perfect quality score
+	 * for every position of each read
 	 * 
-	 * @param r the array of reads.
-	 * @return a String array of quality score
+	 * @param b the batch of reads.
+	 * @param random the random number stream of the caller, not used
 	 */
 	@Override
-	public String[] generate(Read[] r) {
-		String[] ret = new String[r.length];
-
-		for (int i = 0; i < r.length; ++i) {
-			char[] tmp = new char[r[i].length];
-			Arrays.fill(tmp, '~');
-			ret[i] = new String(tmp);
+	public void generate(ReadBatch b, SplittableRandom random) {
+		for (int r = 0; r < 2 * b.size; ++r) {
+			b.qualityLengths[r] = b.lengths[r];
+			Arrays.fill(b.qualities, r * b.stride, r * b.stride + b.lengths[r],
+					(byte) '~');
 		}
-		return ret;
 	}
 }
@@ -1,6 +1,8 @@
 package edu.unc.csbio.RNASim;
 
-import edu.unc.csbio.data.Read;
+import java.util.SplittableRandom;
+
+import edu.unc.csbio.data.ReadBatch;
 
 /**
  * The abstract class for all the quality score generator classes.
@@ -10,8 +12,12 @@ import edu.unc.csbio.data.Read;
  */
 public abstract class QualityGenerator {
 	/**
-	 * An abstract method of <code>generate(Read[] r)</code>
+	 * An abstract method of <code>generate(ReadBatch b, SplittableRandom random)</code>,
+	 * which writes the quality scores of each read of the pairs not failed
+	 * into the batch
 	 * 
+	 * @param b the batch of read pairs
+	 * @param random the random number stream of the caller
 	 */
-	public abstract String[] generate(Read[] r);
+	public abstract void generate(ReadBatch b, SplittableRandom random);
 }
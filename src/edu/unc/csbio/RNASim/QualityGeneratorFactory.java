@@ -24,7 +24,9 @@ public final class QualityGeneratorFactory {
 				String realFq1 = Config.get("Real_Quality_Score_Fastq_1");
 				String realFq2 = Config.get("Real_Quality_Score_Fastq_2");
 				qg = new RealQualityGenerator(realFq1, realFq2);
-			} else
+			} else if (qgType.compareTo("Markov") == 0)
+				qg = new MarkovQualityGenerator(Config.get("Quality_Model"));
+			else
 				qg = new PerfectQualityGenerator();
 		} catch (IOException e) {
 			System.out.println(e.getMessage());
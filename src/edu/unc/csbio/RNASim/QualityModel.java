@@ -0,0 +1,281 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPInputStream;
+
+import edu.unc.csbio.data.ReadBatch;
+
+/**
+ * The class <code>QualityModel</code> generates quality scores by a Markov
+ * chain, trained from real reads by <code>QualityModelTrainer</code>. For
+ * each end and cycle, the model counts how often each quality score follows
+ * each quality score of the cycle before, and, at the first cycle, how often
+ * each quality score starts a read.
+ *
+ * The counts are compiled once when the model is loaded into an alias table
+ * for each end, cycle and quality score before, so a quality score is drawn
+ * by one random number and one comparison. A quality score before that is
+ * not followed in training, e.g. at the last cycle of shorter reads, falls
+ * back to the quality scores of the cycle whatever is before. Reads longer
+ * than the model use its last cycle.
+ *
+ * A model is only read after it is loaded, so the one model of a file is
+ * shared by all threads.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class QualityModel {
+	/**
+	 * the first bytes of a model file
+	 */
+	static final int MAGIC = 0x52534d51; // "RSMQ"
+	/**
+	 * the first and the last printable characters of quality scores
+	 */
+	static final char FIRST_QUALITY = '!', LAST_QUALITY = '~';
+	/**
+	 * the number of states of the chain: the start of a read, and each
+	 * quality score character
+	 */
+	static final int STATES = LAST_QUALITY - FIRST_QUALITY + 2;
+	/**
+	 * the models loaded, by the names of their files
+	 */
+	private static final HashMap<String, QualityModel> loaded = new HashMap<String, QualityModel>();
+
+	/**
+	 * the number of ends and cycles of the model
+	 */
+	private final int ends, cycles;
+	/**
+	 * the quality score characters seen in training, and the index of each
+	 * state among them, the start of a read last
+	 */
+	private final byte[] symbols;
+	private final int[] stateIndex = new int[STATES];
+	/**
+	 * the alias table of each row of an end, cycle and state before: the
+	 * probability of keeping each slot, and the index of its alias
+	 */
+	private final float[] keep;
+	private final byte[] alias;
+
+	/**
+	 * Get the model of a file, loaded if it is not yet.
+	 *
+	 * @param fn the name of the model file
+	 * @return the model
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public static synchronized QualityModel get(String fn) throws IOException {
+		QualityModel model = loaded.get(fn);
+		if (model == null) {
+			model = read(fn);
+			loaded.put(fn, model);
+		}
+		return model;
+	}
+
+	/**
+	 * A constructor for <code>QualityModel</code> object
+	 *
+	 * @param _ends the number of ends
+	 * @param _cycles the number of cycles
+	 * @param counts the counts of each end and cycle, by the state before and
+	 *            the quality score, or null if there is none
+	 */
+	QualityModel(int _ends, int _cycles, long[][][] counts) {
+		ends = _ends;
+		cycles = _cycles;
+		int symbolCount = STATES - 1;
+
+		int n = 0;
+		boolean[] seen = new boolean[symbolCount];
+		for (int e = 0; e < ends; ++e)
+			for (int c = 0; c < cycles; ++c)
+				for (int k = 0; counts[e][c] != null && k < counts[e][c].length; ++k)
+					if (counts[e][c][k] > 0 && !seen[k % symbolCount]) {
+						seen[k % symbolCount] = true;
+						++n;
+					}
+		if (n == 0)
+			throw (new RuntimeException("No quality score in the model."));
+		symbols = new byte[n];
+		Arrays.fill(stateIndex, -1);
+		for (int s = 0, k = 0; s < symbolCount; ++s)
+			if (seen[s]) {
+				symbols[k] = (byte) (FIRST_QUALITY + s);
+				stateIndex[s + 1] = k++;
+			}
+		stateIndex[0] = n;
+
+		int rows = ends * cycles * (n + 1);
+		keep = new float[rows * n];
+		alias = new byte[rows * n];
+		double[] w = new double[n], marginal = new double[n];
+		for (int e = 0; e < ends; ++e)
+			for (int c = 0; c < cycles; ++c) {
+				long[] cnt = counts[e][c];
+				if (cnt == null) {
+					/* No read of the end is this long */
+					if (c == 0)
+						throw (new RuntimeException("No read of end "
+								+ (e + 1) + " in the model."));
+					int from = row(e, c - 1, 0) * n;
+					System.arraycopy(keep, from, keep, row(e, c, 0) * n,
+							(n + 1) * n);
+					System.arraycopy(alias, from, alias, row(e, c, 0) * n,
+							(n + 1) * n);
+					continue;
+				}
+				Arrays.fill(marginal, 0);
+				for (int s = 0; s < STATES; ++s)
+					for (int k = 0; k < n; ++k)
+						marginal[k] += cnt[s * symbolCount + symbols[k]
+								- FIRST_QUALITY];
+				for (int s = 0; s < STATES; ++s) {
+					if (stateIndex[s] < 0)
+						continue;
+					double total = 0;
+					for (int k = 0; k < n; ++k) {
+						w[k] = cnt[s * symbolCount + symbols[k] - FIRST_QUALITY];
+						total += w[k];
+					}
+					compile(row(e, c, stateIndex[s]), total > 0 ? w : marginal);
+				}
+			}
+	}
+
+	/**
+	 * Compile the counts of a row into its alias table, by the method of
+	 * Vose.
+	 *
+	 * @param row the index of the row
+	 * @param w the counts of each quality score
+	 */
+	private void compile(int row, double[] w) {
+		int n = symbols.length;
+		double total = 0;
+		for (int k = 0; k < n; ++k)
+			total += w[k];
+		double[] p = new double[n];
+		int[] small = new int[n], large = new int[n];
+		int ns = 0, nl = 0;
+		for (int k = 0; k < n; ++k) {
+			p[k] = w[k] * n / total;
+			if (p[k] < 1)
+				small[ns++] = k;
+			else
+				large[nl++] = k;
+		}
+		int at = row * n;
+		for (int k = 0; k < n; ++k) {
+			keep[at + k] = 1;
+			alias[at + k] = (byte) k;
+		}
+		while (ns > 0 && nl > 0) {
+			int s = small[--ns], l = large[--nl];
+			keep[at + s] = (float) p[s];
+			alias[at + s] = (byte) l;
+			p[l] -= 1 - p[s];
+			if (p[l] < 1)
+				small[ns++] = l;
+			else
+				large[nl++] = l;
+		}
+	}
+
+	/**
+	 * Get the index of the row of an end, cycle and state before.
+	 */
+	private int row(int e, int c, int state) {
+		return (e * cycles + c) * (symbols.length + 1) + state;
+	}
+
+	/**
+	 * Generate the quality scores of a read into its batch.
+	 *
+	 * @param b the batch of the read
+	 * @param r the index of the read
+	 * @param e the end of the read, 0 for the first
+	 * @param random the random number stream of the caller
+	 */
+	public void generate(ReadBatch b, int r, int e, SplittableRandom random) {
+		int n = symbols.length, length = b.lengths[r], to = r * b.stride;
+		byte[] qs = b.qualities;
+		b.qualityLengths[r] = length;
+		int base = Math.min(e, ends - 1) * cycles;
+		int state = n;
+		for (int j = 0; j < length; ++j) {
+			int c = j < cycles ? j : cycles - 1;
+			double u = random.nextDouble() * n;
+			int k = (int) u, at = ((base + c) * (n + 1) + state) * n + k;
+			state = u - k < keep[at] ? k : alias[at];
+			qs[to + j] = symbols[state];
+		}
+	}
+
+	/**
+	 * Get the number of cycles of the model
+	 *
+	 * @return the number of cycles; longer reads use the last one
+	 */
+	public int getCycles() {
+		return cycles;
+	}
+
+	/**
+	 * Get the number of ends of the model
+	 *
+	 * @return the number of ends; a model of one end is used for both
+	 */
+	public int getEnds() {
+		return ends;
+	}
+
+	/**
+	 * Read a model file written by <code>QualityModelTrainer</code>.
+	 *
+	 * @param fn the name of the model file
+	 * @return the model
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public static QualityModel read(String fn) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(fn))));
+		try {
+			if (in.readInt() != MAGIC)
+				throw (new IOException("Not a quality model file " + fn + "."));
+			int ends = in.readInt(), cycles = in.readInt();
+			int n = in.readInt();
+			if (ends < 1 || cycles < 1)
+				throw (new IOException("Empty quality model file " + fn + "."));
+			int symbolCount = STATES - 1;
+			long[][][] counts = new long[ends][cycles][];
+			for (int i = 0; i < n; ++i) {
+				int e = in.readUnsignedByte(), c = in.readUnsignedShort();
+				int s = in.readUnsignedByte(), q = in.readUnsignedByte();
+				long count = in.readLong();
+				if (e >= ends || c >= cycles || s >= STATES
+						|| q >= symbolCount || count < 0)
+					throw (new IOException("Corrupted quality model file "
+							+ fn + "."));
+				if (counts[e][c] == null)
+					counts[e][c] = new long[STATES * symbolCount];
+				counts[e][c][s * symbolCount + q] = count;
+			}
+			return new QualityModel(ends, cycles, counts);
+		} finally {
+			in.close();
+		}
+	}
+}
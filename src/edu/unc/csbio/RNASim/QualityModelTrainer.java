@@ -0,0 +1,155 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The class <code>QualityModelTrainer</code> trains a
+ * <code>QualityModel</code> from real reads. For each end, the quality
+ * scores of a Fastq file are scanned, and each quality score is counted by
+ * its end, cycle and the quality score before it.
+ *
+ * Only the counts seen are written to the model file, compressed by gzip,
+ * so a model is much smaller than the Fastq files it is trained from.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class QualityModelTrainer {
+	/**
+	 * the counts of each end and cycle, by the state before and the quality
+	 * score
+	 */
+	private final ArrayList<ArrayList<long[]>> counts = new ArrayList<ArrayList<long[]>>();
+
+	/**
+	 * Open a Fastq file, compressed by gzip if its name ends with ".gz".
+	 */
+	private static BufferedReader open(String fn) throws IOException {
+		InputStream in = new FileInputStream(fn);
+		if (fn.endsWith(".gz"))
+			in = new GZIPInputStream(in, 65536);
+		return new BufferedReader(new InputStreamReader(in, "US-ASCII"),
+				1 << 20);
+	}
+
+	/**
+	 * Count the quality scores of the reads of an end.
+	 *
+	 * @param fn the Fastq file of the reads
+	 * @return the number of reads counted
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public long add(String fn) throws IOException {
+		ArrayList<long[]> end = new ArrayList<long[]>();
+		counts.add(end);
+		int symbolCount = QualityModel.STATES - 1;
+		long n = 0;
+		BufferedReader br = open(fn);
+		try {
+			while (br.readLine() != null) {
+				br.readLine();
+				br.readLine();
+				String qs = br.readLine();
+				if (qs == null)
+					throw (new RuntimeException("Truncated record in " + fn
+							+ "."));
+				int state = 0;
+				for (int j = 0; j < Math.min(qs.length(), 65536); ++j) {
+					int q = qs.charAt(j) - QualityModel.FIRST_QUALITY;
+					if (q < 0 || q >= symbolCount)
+						throw (new RuntimeException("Unknown quality score "
+								+ qs.charAt(j) + "."));
+					while (end.size() <= j)
+						end.add(new long[QualityModel.STATES * symbolCount]);
+					++end.get(j)[state * symbolCount + q];
+					state = q + 1;
+				}
+				++n;
+			}
+		} finally {
+			br.close();
+		}
+		if (n == 0)
+			throw (new IOException("No read in " + fn + "."));
+		return n;
+	}
+
+	/**
+	 * Write the counts to a model file.
+	 *
+	 * @param fn the name of the model file
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public void write(String fn) throws IOException {
+		int cycles = 0, entries = 0;
+		for (ArrayList<long[]> end : counts) {
+			cycles = Math.max(cycles, end.size());
+			for (long[] cnt : end)
+				for (long x : cnt)
+					if (x > 0)
+						++entries;
+		}
+		int symbolCount = QualityModel.STATES - 1;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new GZIPOutputStream(new FileOutputStream(fn))));
+		try {
+			out.writeInt(QualityModel.MAGIC);
+			out.writeInt(counts.size());
+			out.writeInt(cycles);
+			out.writeInt(entries);
+			for (int e = 0; e < counts.size(); ++e) {
+				ArrayList<long[]> end = counts.get(e);
+				for (int c = 0; c < end.size(); ++c) {
+					long[] cnt = end.get(c);
+					for (int k = 0; k < cnt.length; ++k) {
+						if (cnt[k] == 0)
+							continue;
+						out.writeByte(e);
+						out.writeShort(c);
+						out.writeByte(k / symbolCount);
+						out.writeByte(k % symbolCount);
+						out.writeLong(cnt[k]);
+					}
+				}
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			System.err.println("Argument not enought!");
+			System.err
+					.println("Usage: java -cp RNAseqSim-version.jar edu.unc.csbio.RNASim.QualityModelTrainer "
+							+ "Model_File Fastq_1 [Fastq_2]");
+			System.err.println("abort!");
+			System.exit(1);
+		}
+		try {
+			QualityModelTrainer trainer = new QualityModelTrainer();
+			for (int i = 1; i < args.length; ++i) {
+				long n = trainer.add(args[i]);
+				System.out.println(n + " reads of end " + i
+						+ " counted from [" + args[i] + "].");
+			}
+			trainer.write(args[0]);
+			System.out.println("Quality model written to [" + args[0] + "].");
+		} catch (IOException e) {
+			MainCmdline.abort(e);
+		}
+	}
+}
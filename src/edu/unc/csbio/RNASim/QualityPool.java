@@ -0,0 +1,214 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+
+import edu.unc.csbio.data.ReadBatch;
+
+/**
+ * The class <code>QualityPool</code> keeps the quality scores of two real
+ * Fastq files, the two ends of the same read pairs, to be sampled by read
+ * pair. The files are read once; the quality scores of each pair are kept
+ * next to each other in large byte pages, with the start and the lengths of
+ * each pair in arrays, instead of two strings for each pair.
+ *
+ * A pool is only read after it is loaded, so the one pool of a pair of files
+ * is shared by all threads.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class QualityPool {
+	/**
+	 * the number of bits of the size of a page
+	 */
+	private static final int PAGE_BITS = 26;
+	/**
+	 * the size of a page, 64MB; a pair never spans two pages
+	 */
+	private static final int PAGE_SIZE = 1 << PAGE_BITS;
+	/**
+	 * the pools loaded, by the names of their files
+	 */
+	private static final HashMap<String, QualityPool> loaded = new HashMap<String, QualityPool>();
+
+	/**
+	 * the pages of the quality scores
+	 */
+	private byte[][] pages = new byte[1][];
+	/**
+	 * the start of each pair in the pages, the page in the high bits and the
+	 * offset in the page in the low bits
+	 */
+	private long[] starts = new long[1024];
+	/**
+	 * the lengths of the quality scores of both ends of each pair
+	 */
+	private int[] lengths1 = new int[1024], lengths2 = new int[1024];
+	/**
+	 * the number of pairs
+	 */
+	private int size = 0;
+
+	/**
+	 * Get the pool of two Fastq files, loaded if it is not yet.
+	 *
+	 * @param fq1 the Fastq file of the first ends
+	 * @param fq2 the Fastq file of the second ends
+	 * @return the pool
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public static synchronized QualityPool get(String fq1, String fq2)
+			throws IOException {
+		String key = fq1 + "\t" + fq2;
+		QualityPool pool = loaded.get(key);
+		if (pool == null) {
+			pool = new QualityPool(fq1, fq2);
+			loaded.put(key, pool);
+		}
+		return pool;
+	}
+
+	/**
+	 * Open a Fastq file, compressed by gzip if its name ends with ".gz".
+	 */
+	private static BufferedReader open(String fn) throws IOException {
+		InputStream in = new FileInputStream(fn);
+		if (fn.endsWith(".gz"))
+			in = new GZIPInputStream(in, 65536);
+		return new BufferedReader(new InputStreamReader(in,
+				StandardCharsets.US_ASCII), 1 << 20);
+	}
+
+	/**
+	 * A constructor for <code>QualityPool</code> object, which reads the
+	 * quality scores of the pairs of two Fastq files, as many as in the
+	 * shorter one.
+	 *
+	 * @param fq1 the Fastq file of the first ends
+	 * @param fq2 the Fastq file of the second ends
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	private QualityPool(String fq1, String fq2) throws IOException {
+		BufferedReader br1 = open(fq1);
+		try {
+			BufferedReader br2 = open(fq2);
+			try {
+				pages[0] = new byte[PAGE_SIZE];
+				long at = 0;
+				String q1, q2;
+				while (true) {
+					q1 = quality(br1);
+					q2 = quality(br2);
+					if (q1 == null || q2 == null)
+						break;
+					int n = q1.length() + q2.length();
+					if (n > PAGE_SIZE)
+						throw (new IOException("Read too long in [" + fq1
+								+ "] or [" + fq2 + "]."));
+					if ((at & (PAGE_SIZE - 1)) + n > PAGE_SIZE)
+						at = (at >>> PAGE_BITS) + 1 << PAGE_BITS;
+					int page = (int) (at >>> PAGE_BITS);
+					int off = (int) (at & (PAGE_SIZE - 1));
+					if (page == pages.length)
+						pages = Arrays.copyOf(pages, page + 1);
+					if (pages[page] == null)
+						pages[page] = new byte[PAGE_SIZE];
+					byte[] b = pages[page];
+					for (int i = 0; i < q1.length(); ++i)
+						b[off++] = (byte) q1.charAt(i);
+					for (int i = 0; i < q2.length(); ++i)
+						b[off++] = (byte) q2.charAt(i);
+					add(at, q1.length(), q2.length());
+					at += n;
+				}
+				/* The last page is trimmed to its use */
+				int last = pages.length - 1;
+				pages[last] = Arrays.copyOf(pages[last],
+						(int) (at - ((long) last << PAGE_BITS)));
+			} finally {
+				br2.close();
+			}
+		} finally {
+			br1.close();
+		}
+		if (size == 0)
+			throw (new IOException("No quality score in real Fastq file ["
+					+ fq1 + "] or [" + fq2 + "]."));
+		starts = Arrays.copyOf(starts, size);
+		lengths1 = Arrays.copyOf(lengths1, size);
+		lengths2 = Arrays.copyOf(lengths2, size);
+	}
+
+	/**
+	 * Read the quality scores of the next record of a Fastq file.
+	 *
+	 * @return the quality scores, or null at the end of the file
+	 */
+	private static String quality(BufferedReader br) throws IOException {
+		for (int i = 0; i < 3; ++i)
+			if (br.readLine() == null)
+				return null;
+		return br.readLine();
+	}
+
+	/**
+	 * Add a pair to the index.
+	 */
+	private void add(long start, int length1, int length2) {
+		if (size == starts.length) {
+			if (size == Integer.MAX_VALUE - 8)
+				throw (new RuntimeException("Too many reads in real Fastq file."));
+			int n = (int) Math.min(Integer.MAX_VALUE - 8, size * 2L);
+			starts = Arrays.copyOf(starts, n);
+			lengths1 = Arrays.copyOf(lengths1, n);
+			lengths2 = Arrays.copyOf(lengths2, n);
+		}
+		starts[size] = start;
+		lengths1[size] = length1;
+		lengths2[size] = length2;
+		++size;
+	}
+
+	/**
+	 * Get the number of pairs
+	 *
+	 * @return the number of pairs
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Copy the quality scores of one end of a pair into a read of a batch.
+	 *
+	 * @param i the index of the pair
+	 * @param end 0 for the first end, and 1 for the second
+	 * @param b the batch of the read
+	 * @param r the index of the read
+	 * @throws RuntimeException
+	 *             if the quality scores are not as long as the read
+	 */
+	public void get(int i, int end, ReadBatch b, int r) {
+		long at = starts[i];
+		int off = (int) (at & (PAGE_SIZE - 1));
+		if (end > 0)
+			off += lengths1[i];
+		int n = end > 0 ? lengths2[i] : lengths1[i];
+		if (n != b.lengths[r])
+			throw (new RuntimeException(
+					"length of quality score not match the read"));
+		System.arraycopy(pages[(int) (at >>> PAGE_BITS)], off, b.qualities,
+				r * b.stride, n);
+		b.qualityLengths[r] = n;
+	}
+}
@@ -0,0 +1,227 @@
+package edu.unc.csbio.RNASim;
+
+import java.util.SplittableRandom;
+
+import edu.unc.csbio.data.*;
+
+/**
+ * The class <code>ReadChunk</code> is a unit of work in generating reads: a
+ * number of read pairs of one transcript. A chunk goes through the steps of
+ * fragment sampling, error injection and record encoding, in that order. It
+ * owns its random number stream, so chunks can be processed by any thread in
+ * any order, and still give the same reads.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class ReadChunk {
+	/**
+	 * the window of the chunk
+	 */
+	final GeneWindow window;
+	/**
+	 * the index of the chunk in its window
+	 */
+	final int index;
+	/**
+	 * whether it is the last chunk of its window
+	 */
+	boolean last = false;
+	/**
+	 * the transcript, or null if the chunk only marks the end of a window
+	 */
+	final Transcript transcript;
+	/**
+	 * the transcript sequence, shared by the chunks of the transcript
+	 */
+	private final CharSequence sequence;
+	/**
+	 * the sequence buffer of the window, and the offsets of the exons in the
+	 * transcript sequence, to map the reads back to the reference
+	 */
+	private final SequenceBuffer buffer;
+	private final int[] exonOffsets;
+	/**
+	 * the sample and its haplotype the reads are generated from
+	 */
+	int sample = 0, haplotype = 0;
+	/**
+	 * the number of read pairs to be sampled
+	 */
+	private final int pairs;
+	/**
+	 * whether it is the first chunk of its transcript
+	 */
+	final boolean first;
+	/**
+	 * the random number stream of the chunk
+	 */
+	private final SplittableRandom random;
+	/**
+	 * the read pairs sampled, with their quality scores
+	 */
+	private ReadBatch reads = null;
+	/**
+	 * the pool the batch is taken from, and given back to when it is encoded
+	 */
+	private ReadPool pool = null;
+	/**
+	 * whether generating the reads of the chunk failed
+	 */
+	boolean failed = false;
+	/**
+	 * the number of read pairs sampled
+	 */
+	int size = 0;
+	/**
+	 * the encoded fq records of the first and second pair end reads
+	 */
+	String fastq1 = null, fastq2 = null;
+
+	/**
+	 * A constructor for <code>ReadChunk</code> object
+	 *
+	 * @param _window the window of the chunk
+	 * @param _index the index of the chunk in its window
+	 * @param _t the transcript
+	 * @param _sequence the transcript sequence
+	 * @param _buffer the sequence buffer of the window
+	 * @param _exonOffsets the offsets of the exons in the transcript sequence
+	 * @param _pairs the number of read pairs to be sampled
+	 * @param _first whether it is the first chunk of the transcript
+	 * @param _random the random number stream of the chunk
+	 */
+	public ReadChunk(GeneWindow _window, int _index, Transcript _t,
+			CharSequence _sequence, SequenceBuffer _buffer,
+			int[] _exonOffsets, int _pairs, boolean _first,
+			SplittableRandom _random) {
+		window = _window;
+		index = _index;
+		transcript = _t;
+		sequence = _sequence;
+		buffer = _buffer;
+		exonOffsets = _exonOffsets;
+		pairs = _pairs;
+		first = _first;
+		random = _random;
+	}
+
+	/**
+	 * Sample fragments from the transcript sequence, and generate the quality
+	 * scores of their pair end reads. A chunk without reads, e.g. of a
+	 * transcript not expressed or marking the end of a window, takes no batch.
+	 *
+	 * @param qg the quality score generator of the calling thread
+	 * @param _pool the read pool of the calling thread
+	 */
+	public void sample(QualityGenerator qg, ReadPool _pool) {
+		size = 0;
+		if (pairs == 0 || sequence == null)
+			return;
+		ReadGenerator rg = new ReadGenerator(MainCmdline.readLength,
+				MainCmdline.fragMinLength, MainCmdline.fragMaxLength);
+		pool = _pool;
+		reads = pool.take(pairs);
+		rg.generate(sequence, random, reads, pairs);
+		qg.generate(reads, random);
+		size = reads.size;
+	}
+
+	/**
+	 * Inject errors into the sampled reads: flip and reverse one of the ends,
+	 * and change bases by quality scores, or by the error model if there is
+	 * one, and by the unknown factor. Each step goes over the whole batch.
+	 * The read pairs that fail are dropped.
+	 */
+	public void inject() {
+		if (reads == null)
+			return;
+		if (MainCmdline.flipAndReverse)
+			ReadModifier.flipAndReverse(reads, random);
+		if (MainCmdline.errorModel != null)
+			MainCmdline.errorModel.modify(reads, random);
+		else
+			ReadModifier.modifyByQualityScoreAlt(reads, random);
+		ReadModifier.modifyByProbability(reads, MainCmdline.unknownFactor,
+				random);
+		reads.compact();
+		size = reads.size;
+	}
+
+	/**
+	 * Encode the read pairs into fq records.
+	 */
+	public void encode() {
+		int readLength = MainCmdline.readLength;
+		StringBuilder sb1 = new StringBuilder(size * readLength * 4);
+		StringBuilder sb2 = new StringBuilder(size * readLength * 4);
+		ReadBatch b = reads;
+
+		StringBuilder idsb = new StringBuilder();
+		for (int i = 0; i < size; ++i) {
+			int r0 = 2 * i, r1 = 2 * i + 1;
+
+			idsb.setLength(0);
+			idsb.append(MainCmdline.IDPREFIX);
+			idsb.append(random.nextInt(10000));
+			idsb.append(":");
+			idsb.append(window.chrom);
+			idsb.append(":");
+			idsb.append(transcript.refPos(b.offsets[r0], exonOffsets, buffer));
+			idsb.append(":");
+			idsb.append(transcript.refPos(b.offsets[r1], exonOffsets, buffer));
+			idsb.append(":");
+			idsb.append(b.strands[r0]);
+			idsb.append(":");
+			idsb.append(b.strands[r1]);
+			idsb.append(":");
+			idsb.append(b.getChanges(r0));
+			idsb.append(":");
+			idsb.append(b.getChanges(r1));
+			if (MainCmdline.ploidy > 1) {
+				idsb.append(":");
+				idsb.append(haplotype + 1);
+			}
+
+			sb1.append("@");
+			sb1.append(idsb);
+			sb1.append("/1\n");
+			append(sb1, b.bases, r0 * b.stride, b.lengths[r0]);
+			sb1.append("\n");
+			sb1.append("+");
+			sb1.append(idsb);
+			sb1.append("/1\n");
+			append(sb1, b.qualities, r0 * b.stride, b.qualityLengths[r0]);
+			sb1.append("\n");
+
+			sb2.append("@");
+			sb2.append(idsb);
+			sb2.append("/2\n");
+			append(sb2, b.bases, r1 * b.stride, b.lengths[r1]);
+			sb2.append("\n");
+			sb2.append("+");
+			sb2.append(idsb);
+			sb2.append("/2\n");
+			append(sb2, b.qualities, r1 * b.stride, b.qualityLengths[r1]);
+			sb2.append("\n");
+		}
+
+		fastq1 = sb1.toString();
+		fastq2 = sb2.toString();
+		if (b == null)
+			return;
+		/* The reads are no longer needed once they are encoded. */
+		pool.give(reads);
+		reads = null;
+		pool = null;
+	}
+
+	/**
+	 * Append a range of bases or quality scores of a batch.
+	 */
+	private static void append(StringBuilder sb, byte[] bytes, int from,
+			int length) {
+		for (int i = from; i < from + length; ++i)
+			sb.append((char) bytes[i]);
+	}
+}
@@ -1,6 +1,8 @@
 package edu.unc.csbio.RNASim;
 
-import edu.unc.csbio.data.Read;
+import java.util.SplittableRandom;
+
+import edu.unc.csbio.data.ReadBatch;
 
 /**
  * The class generates pair-end reads from a sequence.
@@ -36,41 +38,39 @@ public class ReadGenerator {
 	}
 
 	/**
-	 * Randomly sample a fragment from a transcript sequence, and then
-	 * return its both ends.
+	 * Randomly sample fragments from a transcript sequence, and add their
+	 * both ends to a batch as read pairs. The ends are copied straight from
+	 * the sequence into the batch.
 	 * 
 	 * @param sequence the transcript sequence.
-	 * @return an array for pair-end reads,  null if the sequence is 
-	 *         too short to get reads
+	 * @param random the random number stream of the caller.
+	 * @param b the batch the read pairs are added to
+	 * @param pairs the number of fragments; none is sampled if the sequence
+	 *            is too short to get reads
 	 */
-	public Read[] generate(String sequence) {
-		String[] reads = new String[2];
-		reads[0] = "";
-		reads[1] = "";
-
+	public void generate(CharSequence sequence, SplittableRandom random,
+			ReadBatch b, int pairs) {
 		int seqLength = sequence.length();
 		if (seqLength < fragMinLength)
-			return null;
-
-		int fragLength = fragMinLength
-				+ (int) (Math.random() * ((seqLength > fragMaxLength ? fragMaxLength
-						: seqLength) - fragMinLength));
-
-		// System.out.println(seqLength);
-		// System.out.println(fragMinLength);
-		// System.out.println(fragMaxLength);
-		// System.out.println(fragLength);
-
-		int fragStart = (int) (Math.random() * (seqLength - fragLength));
-
-		String fragment = sequence.substring(fragStart, fragStart + fragLength);
+			return;
 
-		reads[0] = fragment.substring(0, readLength);
-		reads[1] = fragment.substring(fragLength - readLength, fragLength);
+		for (int times = 0; times < pairs; ++times) {
+			int i = b.add();
+			try {
+				int fragLength = fragMinLength
+						+ (int) (random.nextDouble() * ((seqLength > fragMaxLength ? fragMaxLength
+								: seqLength) - fragMinLength));
+				int fragStart = (int) (random.nextDouble() * (seqLength - fragLength));
 
-		Read[] r = new Read[] { new Read(fragStart, reads[0]),
-				new Read(fragStart + fragLength - readLength, reads[1]) };
-		return r;
+				int mateStart = fragStart + fragLength - readLength;
+				b.set(2 * i, fragStart, sequence, fragStart, fragStart
+						+ readLength);
+				b.set(2 * i + 1, mateStart, sequence, mateStart, mateStart
+						+ readLength);
+			} catch (RuntimeException e) {
+				b.fail(i, e);
+			}
+		}
 	}
 
 }
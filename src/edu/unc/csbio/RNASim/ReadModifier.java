@@ -1,135 +1,227 @@
 package edu.unc.csbio.RNASim;
 
-import edu.unc.csbio.data.Read;
+import java.util.SplittableRandom;
+
+import edu.unc.csbio.data.ReadBatch;
 
 /**
- * The class modifies pair-end reads from a sequence.
- * 
+ * The class modifies pair-end reads from a sequence, a batch of read pairs
+ * at a time. A pair that fails is marked in the batch, and skipped.
+ *
+ * Errors are not drawn base by base. The distance to the next error is drawn
+ * from the geometric distribution instead, so a read with a low error rate
+ * costs a few random numbers rather than one for each base. When the rate
+ * differs between bases, e.g. by the quality scores, the distance is drawn
+ * at the highest rate of the read, and an error is kept with the ratio of
+ * the rate of its base to the highest rate. With the same rate for all
+ * bases, the distance runs on across the reads of the batch.
+ *
  * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
- * @version 0.2
+ * @version 0.4
  */
 public class ReadModifier {
 	/**
-	 * all possible nucleotides as a char array
+	 * all possible nucleotides as a byte array
+	 */
+	private static final byte[] whole = { 'A', 'T', 'C', 'G' };
+	/**
+	 * the first and the last printable characters of quality scores
+	 */
+	private static final char FIRST_QUALITY = '!', LAST_QUALITY = '~';
+	/**
+	 * the error probability of each quality score character, from '!' to
+	 * '~', and the same except for the error probability of 'B'
+	 */
+	private static final double[] PHRED = new double[LAST_QUALITY
+			- FIRST_QUALITY + 1], PHRED_ALT = new double[PHRED.length];
+	static {
+		for (int i = 0; i < PHRED.length; ++i) {
+			/*
+			 * qs = -10*log_10(e) e = 10^(-qs/10) = e^(-qs/10*log_e(10))
+			 */
+			PHRED[i] = Math.exp(-(FIRST_QUALITY + i - 64) * 1.0 / 10
+					* Math.log(10));
+			PHRED_ALT[i] = PHRED[i];
+		}
+		PHRED_ALT['B' - FIRST_QUALITY] = 0.045;
+	}
+
+	/**
+	 * Get the error probability of a quality score character.
+	 */
+	private static double errorProb(double[] table, char q) {
+		if (q < FIRST_QUALITY || q > LAST_QUALITY)
+			throw (new RuntimeException("Unknown quality score " + q + "."));
+		double errorProb = table[q - FIRST_QUALITY];
+		if (errorProb > 1)
+			throw (new RuntimeException("Quality score " + q
+					+ " out of range."));
+		return errorProb;
+	}
+
+	/**
+	 * Get the error probability of a quality score character, the same as
+	 * used by <code>modifyByQualityScoreAlt</code>.
+	 *
+	 * @param q the quality score character
+	 * @return the error probability, which is more than 1 if the quality
+	 *         score is out of range
 	 */
-	private static char[] whole = { 'A', 'T', 'C', 'G' };
+	static double qualityErrorProb(char q) {
+		if (q < FIRST_QUALITY || q > LAST_QUALITY)
+			throw (new RuntimeException("Unknown quality score " + q + "."));
+		return PHRED_ALT[q - FIRST_QUALITY];
+	}
 
 	/**
-	 * the method to change original nucleotide based on given error probability
-	 * 
+	 * Draw the number of bases before the next error.
+	 *
+	 * @param logq the logarithm of the probability of no error in a base
+	 * @param limit the number of bases left
+	 * @return the number of bases without error, or limit if it is no less
+	 */
+	static int skip(double logq, int limit, SplittableRandom random) {
+		if (logq == Double.NEGATIVE_INFINITY)
+			return 0;
+		double s = Math.floor(Math.log(1 - random.nextDouble()) / logq);
+		return s < limit ? (int) s : limit;
+	}
+
+	/**
+	 * the method to change an original nucleotide where an error occurs,
+	 * to one of the other nucleotides
+	 *
 	 * @param original nucleotide
-	 * @param errorProb the error probability
-	 * @return the character of new nucleotide
+	 * @param random the random number stream of the caller
+	 * @return the new nucleotide
 	 */
-	protected static char change(char original, double errorProb) {
-		if (errorProb > 1 || errorProb < 0)
-			throw (new RuntimeException());
-		char[] set = new char[3];
-		int j = 0;
-		for (int i = 0; i < 4; i++) {
-			if (whole[i] != original) {
-				if (j > 2) {
-					// Other character occurs.
-					break;
-				}
-				set[j] = whole[i];
-				j++;
+	protected static byte change(byte original, SplittableRandom random) {
+		/*
+		 * The nucleotides other than the original, in the order of whole,
+		 * are whole without the original; another character is changed to
+		 * one of the first three.
+		 */
+		int skip = 3;
+		for (int i = 0; i < 3; i++) {
+			if (whole[i] == original) {
+				skip = i;
+				break;
 			}
+		}
+		int k = random.nextInt(3);
+		return whole[k < skip ? k : k + 1];
+	}
+
+	/**
+	 * Change the bases of a read, each with the error probability of its
+	 * quality score.
+	 */
+	private static void modify(ReadBatch b, int r, double[] table,
+			SplittableRandom random) {
+		int length = b.lengths[r], at = r * b.stride;
+		if (length != b.qualityLengths[r])
+			throw (new RuntimeException(
+					"length of quality score not match the read"));
+		byte[] qs = b.qualities, seq = b.bases;
+		double max = 0;
+		for (int j = at; j < at + length; ++j)
+			max = Math.max(max, errorProb(table, (char) qs[j]));
+		if (max == 0)
+			return;
 
+		double logq = Math.log1p(-max);
+		for (int j = skip(logq, length, random); j < length; j += 1 + skip(
+				logq, length, random)) {
+			double errorProb = table[qs[at + j] - FIRST_QUALITY];
+			if (errorProb == max || random.nextDouble() * max < errorProb)
+				seq[at + j] = change(seq[at + j], random);
 		}
-		
-		double cptr = Math.random();
-		if (cptr < errorProb / 3) {
-			return set[0];
-		} else if (cptr < 2 * errorProb / 3) {
-			return set[1];
-		} else if (cptr < errorProb) {
-			return set[2];
+	}
+
+	/**
+	 * Change the bases of the reads of the pairs not failed, each with the
+	 * error probability of its quality score. A pair fails if a quality score
+	 * is out of range.
+	 */
+	private static void modify(ReadBatch b, double[] table,
+			SplittableRandom random) {
+		for (int i = 0; i < b.size; ++i) {
+			if (b.failed[i])
+				continue;
+			try {
+				modify(b, 2 * i, table, random);
+				modify(b, 2 * i + 1, table, random);
+			} catch (RuntimeException e) {
+				b.fail(i, e);
+			}
 		}
-		return original;
 	}
 
 	/**
 	 * a method to change read sequence based on given quality score For each
 	 * char, qs[i], in the array, Qphred = qs[i] - 64. Also, Qphred = -10
 	 * log10(e), where e is the estimated probability of a base being wrong
-	 * 
-	 * @param r read sequence
-	 * @return new read sequence
-	 * @throws RuntimeException
+	 *
+	 * @param b the batch of reads, with their quality scores
+	 * @param random the random number stream of the caller
 	 */
-	public static Read[] modifyByQualityScore(Read[] r, String[] qs) throws RuntimeException {		
-				
-		for (int i = 0; i < r.length; ++i) {			
-			if (r[i].length != qs[i].length())
-				throw (new RuntimeException(
-						"length of quality score not match the read"));
-			
-			double errorProb = 0;
-			for (int j = 0; j < r[i].length; ++j) {
-				/*
-				 * qs = -10*log_10(e) e = 10^(-qs/10) = e^(-qs/10*log_e(10))
-				 */
-				errorProb = Math.exp(-(qs[i].charAt(j) - 64) * 1.0 / 10
-						* Math.log(10));				
-
-				r[i].sequence[j] = change(r[i].sequence[j], errorProb);
-				
-			}
-		}
-
-		return r;
+	public static void modifyByQualityScore(ReadBatch b, SplittableRandom random) {
+		modify(b, PHRED, random);
 	}
-	
+
 	/**
-	 * The same as <code>modifyByQualtyScore</code>, except for 
+	 * The same as <code>modifyByQualtyScore</code>, except for
 	 * the error probability of 'B'.
-	 */	
-	public static Read[] modifyByQualityScoreAlt(Read[] r, String[] qs) throws RuntimeException {
-		
-		for (int i = 0; i < r.length; ++i) {			
-			if (r[i].length != qs[i].length())
-				throw (new RuntimeException(
-						"length of quality score not match the read"));
-			
-			double errorProb = 0;
-			for (int j = 0; j < r[i].length; ++j) {
-				/*
-				 * qs = -10*log_10(e) e = 10^(-qs/10) = e^(-qs/10*log_e(10))
-				 */
-				if(qs[i].charAt(j)!='B'){
-				errorProb = Math.exp(-(qs[i].charAt(j) - 64) * 1.0 / 10
-						* Math.log(10));}
-				else {errorProb =0.045; }
-              
-				r[i].sequence[j] = change(r[i].sequence[j], errorProb);				
-			}
+	 */
+	public static void modifyByQualityScoreAlt(ReadBatch b, SplittableRandom random) {
+		modify(b, PHRED_ALT, random);
+	}
+
+	/**
+	 * Flip and reverse one of the ends of each pair not failed, chosen at
+	 * random.
+	 *
+	 * @param b the batch of reads
+	 * @param random the random number stream of the caller
+	 */
+	public static void flipAndReverse(ReadBatch b, SplittableRandom random) {
+		for (int i = 0; i < b.size; ++i) {
+			if (b.failed[i])
+				continue;
+			boolean isFirstForward = (random.nextDouble()>=0.5);
+			b.setStrand(2 * i, isFirstForward);
+			b.setStrand(2 * i + 1, !isFirstForward);
 		}
-		return r;
 	}
-	
+
 	/**
-	 * 
-	 * @param r read sequence
-	 * @return new read sequence
+	 * Change the bases of the reads of the pairs not failed, each with the
+	 * same error probability. The reads are taken as one sequence, so the
+	 * distance to the next error runs on from one read to the next.
+	 *
+	 * @param b the batch of reads
+	 * @param prob the error probability
+	 * @param random the random number stream of the caller
 	 * @throws RuntimeException
+	 *             if the probability is out of range
 	 */
-	public static Read[] flipAndReverse(Read[] r) throws RuntimeException{
-		boolean isFirstForward = (Math.random()>=0.5);		
-		r[0].setStrand(isFirstForward);
-		
-		for(int i=1; i<r.length; ++i)
-			r[i].setStrand(!isFirstForward);				
-		
-		return r;
-	}
-	
-	public static Read[] modifyByProbability(Read[] r, double prob) throws RuntimeException {
-		for (int i = 0; i < r.length; ++i) {
-			for (int j = 0; j < r[i].length; ++j) {
-				r[i].sequence[j] = change(r[i].sequence[j], prob);
-			}
+	public static void modifyByProbability(ReadBatch b, double prob, SplittableRandom random) throws RuntimeException {
+		if (prob > 1 || prob < 0)
+			throw (new RuntimeException("Probability " + prob
+					+ " out of range."));
+		if (prob == 0)
+			return;
+		double logq = Math.log1p(-prob);
+		byte[] seq = b.bases;
+		int gap = skip(logq, Integer.MAX_VALUE / 2, random);
+		for (int r = 0; r < 2 * b.size; ++r) {
+			if (b.failed[r / 2])
+				continue;
+			int length = b.lengths[r], at = r * b.stride, j = gap;
+			for (; j < length; j += 1 + skip(logq, Integer.MAX_VALUE / 2,
+					random))
+				seq[at + j] = change(seq[at + j], random);
+			gap = j - length;
 		}
-		return r;
 	}
 }
@@ -0,0 +1,288 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Semaphore;
+
+import edu.unc.csbio.util.*;
+
+/**
+ * The class <code>ReadPipeline</code> generates reads by a pipeline of five
+ * stages connected by bounded queues: window fetch, fragment sampling, error
+ * injection, record encoding and output. The first four stages can run on any
+ * number of threads; the output stage runs on one thread and writes the
+ * chunks in the same order as <code>ChromosomeTask</code> does, so the output
+ * does not depend on the number of threads.
+ *
+ * Only a few windows per fetch thread are in the pipeline at a time: a window
+ * is submitted only after a window before it is written, so a slow window
+ * does not let the chunks of the windows after it pile up in the output
+ * stage. When a chunk fails in a stage, it is passed on marked as failed, and
+ * its chromosome is failed as in <code>ChromosomeTask</code>.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class ReadPipeline {
+	/**
+	 * the number of windows in the pipeline for each fetch thread
+	 */
+	private static final int WINDOWS_AHEAD = 2;
+	/**
+	 * the chromosomes that failed, whose remaining windows are skipped
+	 */
+	private final Set<String> failedChroms = Collections
+			.synchronizedSet(new HashSet<String>());
+	/**
+	 * the writer of the chunks in the output order
+	 */
+	private final ChunkWriter writer;
+	/**
+	 * the pipeline
+	 */
+	private final Pipeline<GeneWindow> pipeline;
+	/**
+	 * the permits of the windows in the pipeline, released when the last
+	 * chunk of a window is written
+	 */
+	private final Semaphore windows;
+
+	/**
+	 * Mark a chunk as failed, and stop running on its chromosome.
+	 */
+	private void fail(ReadChunk chunk, RuntimeException e) {
+		chunk.failed = true;
+		if (failedChroms.add(chunk.window.chrom))
+			System.out.print(e.getMessage());
+	}
+
+	/**
+	 * The window fetch stage reads the sequence of a window and splits it into
+	 * chunks.
+	 */
+	private class FetchStage extends PipelineStage<GeneWindow, ReadChunk> {
+		FetchStage(int threads, int capacity) {
+			super("fetch", threads, capacity);
+		}
+
+		@Override
+		protected void process(GeneWindow w) throws Exception {
+			for (ReadChunk chunk : w.load(failedChroms))
+				emit(chunk);
+		}
+	}
+
+	/**
+	 * The fragment sampling stage samples the reads of a chunk, and generates
+	 * their quality scores with a quality score generator of each thread.
+	 */
+	private class SamplingStage extends PipelineStage<ReadChunk, ReadChunk> {
+		private final ThreadLocal<QualityGenerator> qg = new ThreadLocal<QualityGenerator>() {
+			@Override
+			protected QualityGenerator initialValue() {
+				return QualityGeneratorFactory.CreateQualityGenertor();
+			}
+		};
+		private final ThreadLocal<ReadPool> pool = new ThreadLocal<ReadPool>() {
+			@Override
+			protected ReadPool initialValue() {
+				return new ReadPool();
+			}
+		};
+
+		SamplingStage(int threads, int capacity) {
+			super("sampling", threads, capacity);
+		}
+
+		@Override
+		protected void process(ReadChunk chunk) throws Exception {
+			if (!chunk.failed) {
+				try {
+					chunk.sample(qg.get(), pool.get());
+				} catch (RuntimeException e) {
+					fail(chunk, e);
+				}
+			}
+			emit(chunk);
+		}
+	}
+
+	/**
+	 * The error injection stage modifies the reads of a chunk.
+	 */
+	private class InjectionStage extends PipelineStage<ReadChunk, ReadChunk> {
+		InjectionStage(int threads, int capacity) {
+			super("injection", threads, capacity);
+		}
+
+		@Override
+		protected void process(ReadChunk chunk) throws Exception {
+			if (!chunk.failed) {
+				try {
+					chunk.inject();
+				} catch (RuntimeException e) {
+					fail(chunk, e);
+				}
+			}
+			emit(chunk);
+		}
+	}
+
+	/**
+	 * The record encoding stage encodes the reads of a chunk into fq records.
+	 */
+	private class EncodingStage extends PipelineStage<ReadChunk, ReadChunk> {
+		EncodingStage(int threads, int capacity) {
+			super("encoding", threads, capacity);
+		}
+
+		@Override
+		protected void process(ReadChunk chunk) throws Exception {
+			if (!chunk.failed) {
+				try {
+					chunk.encode();
+				} catch (RuntimeException e) {
+					fail(chunk, e);
+				}
+			}
+			emit(chunk);
+		}
+	}
+
+	/**
+	 * The output stage puts the chunks back into the order of windows and
+	 * chunks in windows, writes them, and reports each chromosome when its
+	 * last window is written.
+	 */
+	private class OutputStage extends PipelineStage<ReadChunk, Object> {
+		/**
+		 * the chunks that arrive before the chunks preceding them
+		 */
+		private final TreeMap<ReadChunk, ReadChunk> pending = new TreeMap<ReadChunk, ReadChunk>(
+				new Comparator<ReadChunk>() {
+					@Override
+					public int compare(ReadChunk a, ReadChunk b) {
+						if (a.window.ordinal != b.window.ordinal)
+							return a.window.ordinal < b.window.ordinal ? -1 : 1;
+						return a.index < b.index ? -1
+								: (a.index > b.index ? 1 : 0);
+					}
+				});
+		/**
+		 * the window and the chunk index to be written next
+		 */
+		private long nextWindow = 0;
+		private int nextIndex = 0;
+
+		OutputStage(int capacity) {
+			super("output", 1, capacity);
+		}
+
+		@Override
+		protected void process(ReadChunk chunk) throws Exception {
+			pending.put(chunk, chunk);
+			while (!pending.isEmpty()) {
+				ReadChunk first = pending.firstKey();
+				if (first.window.ordinal != nextWindow
+						|| first.index != nextIndex)
+					break;
+				pending.remove(first);
+				writer.write(first);
+				if (first.last) {
+					windows.release();
+					++nextWindow;
+					nextIndex = 0;
+				} else
+					++nextIndex;
+			}
+		}
+
+		@Override
+		protected void finish() throws Exception {
+			if (!pending.isEmpty())
+				throw (new IOException("Chunks missing in the output."));
+		}
+	}
+
+	/**
+	 * A constructor for <code>ReadPipeline</code> object
+	 *
+	 * @param _out1 the fq writers of the first pair end reads of each sample
+	 * @param _out2 the fq writers of the second pair end reads of each
+	 *            sample
+	 * @param threads the numbers of threads of the window fetch, fragment
+	 *            sampling, error injection and record encoding stages
+	 * @param capacity the capacity of the queue of each stage
+	 */
+	public ReadPipeline(FqWriter[] _out1, FqWriter[] _out2, int[] threads,
+			int capacity) {
+		writer = new ChunkWriter(_out1, _out2);
+		windows = new Semaphore(WINDOWS_AHEAD * threads[0]);
+		pipeline = new Pipeline<GeneWindow>(new FetchStage(threads[0],
+				capacity));
+		pipeline.then(new SamplingStage(threads[1], capacity))
+				.then(new InjectionStage(threads[2], capacity))
+				.then(new EncodingStage(threads[3], capacity))
+				.then(new OutputStage(capacity));
+	}
+
+	/**
+	 * Generate the reads of all chromosomes. The windows are submitted in the
+	 * order of chromosomes, each once a permit of the windows in the pipeline
+	 * is free.
+	 *
+	 * @param chroms the chromosomes
+	 * @param reportInterval the interval of printing the statistics of stages,
+	 *            in seconds, or 0 to print them only at the end
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public void run(Iterable<String> chroms, int reportInterval)
+			throws IOException {
+		Thread reporter = null;
+		if (reportInterval > 0) {
+			final long interval = reportInterval * 1000L;
+			reporter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							Thread.sleep(interval);
+							System.out.print("\nPipeline status:\n"
+									+ pipeline.report());
+						}
+					} catch (InterruptedException e) {
+						// The pipeline is done.
+					}
+				}
+			}, "pipeline-reporter");
+			reporter.setDaemon(true);
+		}
+
+		pipeline.start();
+		if (reporter != null)
+			reporter.start();
+		try {
+			long ordinal = 0;
+			for (String chrom : chroms) {
+				System.out.println("Generating Sequences for Chromosome "
+						+ chrom + " ... ");
+				for (GeneWindow w : GeneWindow.plan(chrom)) {
+					w.ordinal = ordinal++;
+					pipeline.acquire(windows);
+					pipeline.submit(w);
+				}
+			}
+			pipeline.close();
+		} finally {
+			pipeline.stop();
+			if (reporter != null)
+				reporter.interrupt();
+		}
+		System.out.print("Pipeline statistics:\n" + pipeline.report());
+	}
+}
@@ -0,0 +1,49 @@
+package edu.unc.csbio.RNASim;
+
+import java.util.ArrayList;
+
+import edu.unc.csbio.data.ReadBatch;
+
+/**
+ * The class <code>ReadPool</code> keeps the read batches of the chunks
+ * already encoded, so the chunks sampled next reuse them instead of making
+ * new ones. Each thread sampling fragments has a pool of its own; a chunk
+ * gives its batch back to the pool it took it from once it is encoded,
+ * which in the pipeline may be done by another thread.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.2
+ */
+public class ReadPool {
+	/**
+	 * the batches not in use
+	 */
+	private final ArrayList<ReadBatch> free = new ArrayList<ReadBatch>();
+
+	/**
+	 * Take an empty batch, reused if there is one, or a new one.
+	 *
+	 * @param pairs the number of read pairs the batch must hold
+	 * @return the batch
+	 */
+	public synchronized ReadBatch take(int pairs) {
+		for (int i = free.size() - 1; i >= 0; --i) {
+			if (free.get(i).capacity >= pairs) {
+				ReadBatch b = free.remove(i);
+				b.clear();
+				return b;
+			}
+		}
+		return new ReadBatch(Math.max(pairs, MainCmdline.batchSize),
+				MainCmdline.readLength);
+	}
+
+	/**
+	 * Give a batch back to the pool.
+	 *
+	 * @param b the batch, which must not be used any more
+	 */
+	public synchronized void give(ReadBatch b) {
+		free.add(b);
+	}
+}
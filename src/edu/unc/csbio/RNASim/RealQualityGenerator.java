@@ -1,10 +1,9 @@
 package edu.unc.csbio.RNASim;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.SplittableRandom;
 
-import edu.unc.csbio.data.Read;
+import edu.unc.csbio.data.ReadBatch;
 
 /*
  * May need to extend to one-end and two-end reads.
@@ -14,40 +13,20 @@ import edu.unc.csbio.data.Read;
  * <code>QualityGenerator</code> is for generating quality score from real fq
  * files.
  * 
+ * The quality scores of the files are loaded once into a
+ * <code>QualityPool</code> shared by all generators, and each read pair gets
+ * those of a pair drawn uniformly at random, by the random number stream of
+ * the caller. So the quality scores do not follow the order of the files,
+ * and the reads are the same whichever thread generates them.
+ * 
  * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
- * @version 0.1
+ * @version 0.2
  */
 public class RealQualityGenerator extends QualityGenerator {
 	/**
-	 * two BufferedReader to read two fq files
-	 */
-	private BufferedReader br1 = null, br2 = null;
-	/**
-	 * location of two fq files
+	 * the quality scores of the two fq files
 	 */
-	private String fq1 = null, fq2 = null;
-	/**
-	 * to check whether quality score is found
-	 */
-	private boolean isQualityScoreFound;
-
-	/**
-	 * this method reset BufferReader <code>br1</code> and <code>br2</code>
-	 * 
-	 * @throws IOException
-	 *             if an input or output exception occurred
-	 */
-	private void ResetBufferReader() throws IOException {
-		try {
-			if (br1 != null)
-				br1.close();
-			if (br2 != null)
-				br2.close();
-		} finally {
-			br1 = new BufferedReader(new FileReader(fq1));
-			br2 = new BufferedReader(new FileReader(fq2));
-		}
-	}
+	private final QualityPool pool;
 
 	/**
 	 * this is the constructor for object <code>RealQualityGenerator</code>
@@ -60,49 +39,27 @@ public class RealQualityGenerator extends QualityGenerator {
 	 *             if an input or output exception occurred
 	 */
 	public RealQualityGenerator(String _fq1, String _fq2) throws IOException {
-		fq1 = _fq1;
-		fq2 = _fq2;
-		isQualityScoreFound = false;
-		ResetBufferReader();
+		pool = QualityPool.get(_fq1, _fq2);
 	}
 
 	/**
 	 * Generate read quality score by sampling real Fastq file.
 	 * 
-	 * @param r an array of read
-	 * @return a String array of quality scores 
-	 * @throws  there is not enough lines in real Fastq file
+	 * @param b the batch of reads
+	 * @param random the random number stream of the caller
 	 */
 	@Override
-	public String[] generate(Read[] r) throws RuntimeException {
-		String[] ret = { null, null };
-		int i = 0;
-		String line1 = null, line2 = null;
-		try {
-			i = 0;
-			while (i < 4) {
-				if ((line1 = br1.readLine()) != null
-						&& (line2 = br2.readLine()) != null)
-					++i;
-				else {
-					if (isQualityScoreFound)
-						/*
-						 * To avoid infinite loop if fastq file is less than 4
-						 * lines.
-						 */
-						ResetBufferReader();
-					else
-						throw (new RuntimeException(
-								"Not enough lines in real Fastq file."));
-					i = 0;
-				}
+	public void generate(ReadBatch b, SplittableRandom random) {
+		for (int i = 0; i < b.size; ++i) {
+			if (b.failed[i])
+				continue;
+			int k = random.nextInt(pool.size());
+			try {
+				pool.get(k, 0, b, 2 * i);
+				pool.get(k, 1, b, 2 * i + 1);
+			} catch (RuntimeException e) {
+				b.fail(i, e);
 			}
-			isQualityScoreFound = true;
-			ret[0] = line1;
-			ret[1] = line2;
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-		return ret;
 	}
 }
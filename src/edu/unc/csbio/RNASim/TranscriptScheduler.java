@@ -0,0 +1,241 @@
+package edu.unc.csbio.RNASim;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+import edu.unc.csbio.data.*;
+import edu.unc.csbio.util.*;
+
+/**
+ * The class <code>TranscriptScheduler</code> generates reads on a
+ * work-stealing pool, balancing the work by the number of reads rather than
+ * by chromosomes or genes. The reads of every transcript are split into
+ * batches of at most <code>Batch_Size</code> pairs, each drawing from its own
+ * random number stream, so a highly expressed transcript is spread over all
+ * threads. A window task fetches the sequence of a window and splits it into
+ * batches, and each batch is submitted as a task of its own, which idle
+ * threads steal.
+ *
+ * The batches are written in the same order as <code>ChromosomeTask</code>
+ * does, so the output does not depend on the number of threads. Only a few
+ * windows are fetched ahead, and only a few batches per thread are generated
+ * ahead of the batch being written, so the memory of sequences and encoded
+ * reads is bounded whatever the size of a window. When a batch fails, its
+ * chromosome is failed as in <code>ChromosomeTask</code>, and the other
+ * chromosomes go on.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class TranscriptScheduler {
+	/**
+	 * the work-stealing pool
+	 */
+	private final ForkJoinPool pool;
+	/**
+	 * the number of windows fetched ahead of the window being submitted
+	 */
+	private static final int WINDOWS_AHEAD = 2;
+	/**
+	 * the number of batches generated ahead of the batch being written
+	 */
+	private final int batchesAhead;
+	/**
+	 * the chromosomes that failed, whose remaining windows are skipped
+	 */
+	private final Set<String> failedChroms = Collections
+			.synchronizedSet(new HashSet<String>());
+	/**
+	 * the writer of the batches in the output order
+	 */
+	private final ChunkWriter writer;
+	/**
+	 * the quality score generator of each thread
+	 */
+	private final ThreadLocal<QualityGenerator> qg = new ThreadLocal<QualityGenerator>() {
+		@Override
+		protected QualityGenerator initialValue() {
+			return QualityGeneratorFactory.CreateQualityGenertor();
+		}
+	};
+	/**
+	 * the read pool of each thread
+	 */
+	private final ThreadLocal<ReadPool> readPool = new ThreadLocal<ReadPool>() {
+		@Override
+		protected ReadPool initialValue() {
+			return new ReadPool();
+		}
+	};
+
+	/**
+	 * The task generating the reads of a batch.
+	 */
+	@SuppressWarnings("serial")
+	private class BatchTask extends RecursiveAction {
+		private final ReadChunk chunk;
+
+		BatchTask(ReadChunk _chunk) {
+			chunk = _chunk;
+		}
+
+		@Override
+		protected void compute() {
+			try {
+				chunk.sample(qg.get(), readPool.get());
+				chunk.inject();
+				chunk.encode();
+			} catch (RuntimeException e) {
+				// When runtime exception occurs, stop running on the
+				// chromosome.
+				chunk.failed = true;
+				if (failedChroms.add(chunk.window.chrom))
+					System.out.print(e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * The task fetching the sequence of a window, and splitting it into
+	 * batches.
+	 */
+	@SuppressWarnings("serial")
+	private class WindowTask extends RecursiveTask<ArrayList<ReadChunk>> {
+		private final GeneWindow window;
+
+		WindowTask(GeneWindow _window) {
+			window = _window;
+		}
+
+		@Override
+		protected ArrayList<ReadChunk> compute() {
+			try {
+				return window.load(failedChroms);
+			} catch (IOException e) {
+				throw (new UncheckedIOException(e));
+			}
+		}
+	}
+
+	/**
+	 * A constructor for <code>TranscriptScheduler</code> object
+	 *
+	 * @param out1 the fq writers of the first pair end reads of each sample
+	 * @param out2 the fq writers of the second pair end reads of each sample
+	 * @param threads the number of threads
+	 */
+	public TranscriptScheduler(FqWriter[] out1, FqWriter[] out2, int threads) {
+		writer = new ChunkWriter(out1, out2);
+		pool = new ForkJoinPool(threads);
+		batchesAhead = threads * 4;
+	}
+
+	/**
+	 * Compute the number of read pairs expected from the transcripts in the
+	 * windows, and print how they are split into batches.
+	 *
+	 * @param windows the windows of all chromosomes
+	 */
+	private void plan(ArrayList<GeneWindow> windows) {
+		long totalPairs = 0;
+		long batches = 0;
+		long transcripts = 0;
+		int maxPairs = 0;
+		String maxId = null;
+		for (GeneWindow w : windows) {
+			for (Gene g : w.genes) {
+				for (Transcript t : g.getTranscripts()) {
+					int pairs = GeneWindow.pairsOf(t);
+					if (pairs < 0)
+						continue;
+					++transcripts;
+					totalPairs += pairs;
+					batches += Math.max(1,
+							(pairs + MainCmdline.batchSize - 1)
+									/ MainCmdline.batchSize);
+					if (pairs > maxPairs) {
+						maxPairs = pairs;
+						maxId = t.getId();
+					}
+				}
+			}
+		}
+		System.out.println(totalPairs + " read pairs expected from "
+				+ transcripts + " transcripts, in " + batches
+				+ " batches of at most " + MainCmdline.batchSize + " pairs.");
+		if (maxId != null)
+			System.out.println("Largest transcript " + maxId + ": " + maxPairs
+					+ " pairs ("
+					+ String.format("%.1f", maxPairs * 100.0 / totalPairs)
+					+ "%).");
+	}
+
+	/**
+	 * Generate the reads of all chromosomes. The windows are fetched on the
+	 * pool a few windows ahead, and their batches are submitted in the output
+	 * order. Once a few batches per thread are in flight, the first one is
+	 * waited for and written before the next is submitted.
+	 *
+	 * @param chroms the chromosomes
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public void run(Iterable<String> chroms) throws IOException {
+		ArrayList<GeneWindow> windows = new ArrayList<GeneWindow>();
+		for (String chrom : chroms)
+			windows.addAll(GeneWindow.plan(chrom));
+		plan(windows);
+
+		ArrayDeque<ForkJoinTask<ArrayList<ReadChunk>>> fetching = new ArrayDeque<ForkJoinTask<ArrayList<ReadChunk>>>();
+		ArrayDeque<BatchTask> inFlight = new ArrayDeque<BatchTask>();
+		try {
+			int next = 0;
+			while (next < windows.size() || !fetching.isEmpty()) {
+				while (next < windows.size()
+						&& fetching.size() < WINDOWS_AHEAD)
+					fetching.add(pool.submit(new WindowTask(windows
+							.get(next++))));
+				for (ReadChunk chunk : join(fetching.poll())) {
+					while (inFlight.size() >= batchesAhead)
+						write(inFlight.poll());
+					BatchTask task = new BatchTask(chunk);
+					pool.execute(task);
+					inFlight.add(task);
+				}
+			}
+			while (!inFlight.isEmpty())
+				write(inFlight.poll());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Wait for a window task.
+	 */
+	private static ArrayList<ReadChunk> join(
+			ForkJoinTask<ArrayList<ReadChunk>> task) throws IOException {
+		try {
+			return task.join();
+		} catch (UncheckedIOException e) {
+			throw (e.getCause());
+		}
+	}
+
+	/**
+	 * Wait for a batch task, and write its batch.
+	 */
+	private void write(BatchTask task) throws IOException {
+		task.join();
+		writer.write(task.chunk);
+	}
+}
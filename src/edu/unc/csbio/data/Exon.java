@@ -40,7 +40,7 @@ public class Exon extends Feature {
 	 * @param motherSequence a sequence buffer
 	 * @return exon sequence
 	 */
-	public String getSequence(SequenceBuffer motherSequence) {
+	public CharSequence getSequence(SequenceBuffer motherSequence) {
 		return motherSequence.get(this.getStart(), this.getEnd());
 	}
 
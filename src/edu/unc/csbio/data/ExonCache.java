@@ -0,0 +1,149 @@
+package edu.unc.csbio.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.unc.csbio.util.SplicedSequence;
+
+/**
+ * The class <code>ExonCache</code> keeps the sequences of the exons read from
+ * a sequence buffer, so the exons shared by the isoforms of a gene have their
+ * structure variants applied only once.
+ *
+ * Only the exons of an <code>ExtendedSequenceBuffer</code> are cached, as the
+ * sequence of an exon of a plain <code>SequenceBuffer</code> is already a view
+ * of the reference, made at no cost. An exon spanning several pieces of the
+ * variant sequence is cached as one string, so it is read without going
+ * through its pieces; an exon within one piece is cached as its view.
+ *
+ * The exons are keyed by their start and end positions, as each transcript
+ * has exon objects of its own. The sequences used least recently are evicted
+ * when their size is over the budget. A cache belongs to one window and is
+ * used by one thread; the numbers of hits and misses of all caches are
+ * summed up when a cache is closed.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class ExonCache {
+	/**
+	 * the bytes taken by a cached sequence besides its characters
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+	/**
+	 * the numbers of hits and misses of all closed caches
+	 */
+	private static final AtomicLong totalHits = new AtomicLong(),
+			totalMisses = new AtomicLong();
+
+	/**
+	 * the sequence buffer the exons are read from
+	 */
+	private final SequenceBuffer buffer;
+	/**
+	 * the maximum number of bytes taken by the cached sequences
+	 */
+	private final long budget;
+	/**
+	 * the cached sequences by the positions of their exons, the one used
+	 * least recently first
+	 */
+	private final LinkedHashMap<Long, CharSequence> cache = new LinkedHashMap<Long, CharSequence>(
+			64, 0.75f, true);
+	/**
+	 * the number of bytes taken by the cached sequences
+	 */
+	private long bytes = 0;
+	/**
+	 * the numbers of hits and misses of this cache
+	 */
+	private long hits = 0, misses = 0;
+
+	/**
+	 * A constructor for <code>ExonCache</code> object
+	 *
+	 * @param _buffer the sequence buffer the exons are read from
+	 * @param _budget the maximum number of bytes taken by the cached
+	 *            sequences; nothing is cached if it is 0
+	 */
+	public ExonCache(SequenceBuffer _buffer, long _budget) {
+		buffer = _buffer;
+		budget = _budget;
+	}
+
+	/**
+	 * Get the sequence of an exon, from the cache if it is there.
+	 *
+	 * @param e the exon
+	 * @return the sequence of the exon
+	 */
+	public CharSequence get(Exon e) {
+		if (!(buffer instanceof ExtendedSequenceBuffer))
+			return e.getSequence(buffer);
+		Long key = ((long) e.getStart() << 32) | (e.getEnd() & 0xffffffffL);
+		CharSequence seq = cache.get(key);
+		if (seq != null) {
+			++hits;
+			return seq;
+		}
+
+		++misses;
+		CharSequence view = e.getSequence(buffer);
+		seq = view instanceof SplicedSequence ? view.toString() : view;
+		long size = sizeOf(seq);
+		if (size > budget)
+			return view;
+		cache.put(key, seq);
+		bytes += size;
+
+		/* Evict the sequences used least recently */
+		Iterator<CharSequence> it = cache.values().iterator();
+		while (bytes > budget) {
+			bytes -= sizeOf(it.next());
+			it.remove();
+		}
+		return seq;
+	}
+
+	/**
+	 * Get the number of bytes taken by a cached sequence; a view takes only
+	 * the entry, as it shares the characters of the buffer.
+	 */
+	private static long sizeOf(CharSequence seq) {
+		if (seq instanceof String)
+			return 2L * seq.length() + ENTRY_OVERHEAD;
+		return ENTRY_OVERHEAD;
+	}
+
+	/**
+	 * Add the numbers of hits and misses of this cache to the totals, and
+	 * drop the cached sequences.
+	 */
+	public void close() {
+		totalHits.addAndGet(hits);
+		totalMisses.addAndGet(misses);
+		hits = 0;
+		misses = 0;
+		cache.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Get the number of hits of all closed caches
+	 *
+	 * @return the number of hits
+	 */
+	public static long getTotalHits() {
+		return totalHits.get();
+	}
+
+	/**
+	 * Get the number of misses of all closed caches
+	 *
+	 * @return the number of misses
+	 */
+	public static long getTotalMisses() {
+		return totalMisses.get();
+	}
+}
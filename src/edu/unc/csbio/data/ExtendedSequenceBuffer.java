@@ -1,101 +1,255 @@
 package edu.unc.csbio.data;
 
 import java.util.ArrayList;
-import java.util.Collections;
 
-import edu.unc.csbio.data.Exon;
+import edu.unc.csbio.util.SequenceView;
+import edu.unc.csbio.util.SplicedSequence;
 
 /**
- * The class extending <code>SequenceBuffer</code> for handling structure 
+ * The class extending <code>SequenceBuffer</code> for handling structure
  * variants in the sequence.
- * 
+ *
+ * The haplotype of the window is built once as a piece table: pieces of the
+ * reference, which are kept as positions, and the inserted sequences, in the
+ * order of the haplotype. Deleted bases are the gaps between the reference
+ * pieces. Each piece is indexed by its position in the reference and in the
+ * haplotype, so a region is mapped between both by binary search.
+ *
+ * An insertion is included in the sequence of a region only if it is inside
+ * the region, i.e. after its first base and before or at its last base.
+ *
  * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
  * @version 0.1
  */
 public class ExtendedSequenceBuffer extends SequenceBuffer {
 	/**
-	 * An ArrayList of <code>Feature</code> representing structure variants in
-	 * the sequence
+	 * The first reference position of each piece, or the position an
+	 * insertion is inserted before.
 	 */
-	private final ArrayList<Feature> sv;
-
+	private final int[] refStarts;
 	/**
-	 * Find the SV that has the position just before the given region
-	 * @param start the start position of the region in reference coordinate.
-	 * @param end the end position of the region in reference coordinate.
-	 * @return the index of the found SV
+	 * The key of each piece in the reference, ordering pieces as in the
+	 * haplotype: twice the last position of a piece of the reference, or
+	 * twice the position an insertion is inserted before minus one.
 	 */
-	private int findFirstOverlappedSV(int start, int end) {
-		
-		Exon tmp = new Exon(sv.get(0).getChromosome(),start,end);		
-		int index = Collections.binarySearch(sv, tmp);
-				
-		if (index < 0) 				
-			return -index-2;		
-		else
-			return index-1;
-	}
-		
+	private final int[] refKeys;
+	/**
+	 * The position of the first base of each piece in the haplotype, followed
+	 * by the length of the haplotype.
+	 */
+	private final int[] hapStarts;
+	/**
+	 * The inserted sequence of each piece, or null for a piece of the
+	 * reference.
+	 */
+	private final CharSequence[] inserted;
+
 	/**
 	 * A constructor for object <code>ExtendedSequenceBuffer</code>
-	 * 
+	 *
 	 * @param _raw the sequence
 	 * @param _offset the position difference between the start position of
 	 *            sequence and the start position of the reference gene
 	 * @param _sv an ArrayList of <code>Feature</code> representing
-	 *            structure variants in the sequence
-	 * */	
-	public ExtendedSequenceBuffer(String _raw, int _offset,
+	 *            structure variants in the sequence, ordered by location, or
+	 *            null if there is none
+	 * */
+	public ExtendedSequenceBuffer(CharSequence _raw, int _offset,
 			ArrayList<Feature> _sv) {
 		super(_raw, _offset);
-		sv = _sv;
+		int last = _offset + _raw.length() - 1;
+
+		ArrayList<Integer> starts = new ArrayList<Integer>();
+		ArrayList<Integer> keys = new ArrayList<Integer>();
+		ArrayList<Integer> lengths = new ArrayList<Integer>();
+		ArrayList<CharSequence> seqs = new ArrayList<CharSequence>();
+		/* the next reference position not in any piece yet */
+		int pos = _offset;
+		int size = _sv == null ? 0 : _sv.size();
+		for (int i = firstSV(_sv, _offset); i < size; ++i) {
+			Feature f = _sv.get(i);
+			if (f.start > last + 1)
+				break;
+
+			if (f instanceof Deletion) {
+				if (f.start > pos) {
+					addPiece(starts, keys, lengths, seqs, pos,
+							Math.min(f.start - 1, last), null);
+				}
+				pos = Math.max(pos, f.end + 1);
+			} else if (f instanceof Insertion) {
+				/* An insertion inside a deleted region is dropped */
+				if (f.start < pos)
+					continue;
+				if (f.start > pos) {
+					addPiece(starts, keys, lengths, seqs, pos, f.start - 1,
+							null);
+					pos = f.start;
+				}
+				addPiece(starts, keys, lengths, seqs, f.start, f.start,
+						SequenceView.of(new String(((Insertion) f)
+								.getInserted())));
+			} else
+				throw (new RuntimeException("Unknown SV type."));
+		}
+		if (pos <= last)
+			addPiece(starts, keys, lengths, seqs, pos, last, null);
+
+		int n = starts.size();
+		refStarts = new int[n];
+		refKeys = new int[n];
+		hapStarts = new int[n + 1];
+		inserted = seqs.toArray(new CharSequence[n]);
+		for (int k = 0; k < n; ++k) {
+			refStarts[k] = starts.get(k);
+			refKeys[k] = keys.get(k);
+			hapStarts[k + 1] = hapStarts[k] + lengths.get(k);
+		}
+	}
+
+	/**
+	 * Add a piece of the reference [start, end], or an insertion before start.
+	 */
+	private static void addPiece(ArrayList<Integer> starts,
+			ArrayList<Integer> keys, ArrayList<Integer> lengths,
+			ArrayList<CharSequence> seqs, int start, int end, CharSequence ins) {
+		if (ins == null && end < start)
+			return;
+		if (ins != null && ins.length() == 0)
+			return;
+		starts.add(start);
+		keys.add(ins == null ? 2 * end : 2 * start - 1);
+		lengths.add(ins == null ? end - start + 1 : ins.length());
+		seqs.add(ins);
+	}
+
+	/**
+	 * Find the SV just before a position, as a deletion starting before the
+	 * window may reach into it.
+	 */
+	private static int firstSV(ArrayList<Feature> sv, int pos) {
+		if (sv == null)
+			return 0;
+		int lo = 0, hi = sv.size();
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sv.get(mid).start < pos)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo > 0 ? lo - 1 : 0;
+	}
+
+	/**
+	 * Find the first piece whose key is not less than a given key.
+	 */
+	private int pieceByKey(int key) {
+		int lo = 0, hi = refKeys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (refKeys[mid] < key)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Map a reference position to the haplotype.
+	 *
+	 * @param pos the reference position
+	 * @param after whether the insertions before the position are counted
+	 * @return the haplotype position of the base at the reference position,
+	 *         or of the next base if it is deleted
+	 */
+	private int toHaplotype(int pos, boolean after) {
+		int k = pieceByKey(after ? 2 * pos : 2 * pos - 1);
+		if (k == refKeys.length)
+			return hapStarts[k];
+		if (inserted[k] != null)
+			return hapStarts[k];
+		return hapStarts[k] + Math.max(0, pos - refStarts[k]);
+	}
+
+	/**
+	 * Find the piece containing a haplotype position.
+	 */
+	private int pieceByHaplotype(int hapPos) {
+		int lo = 0, hi = refStarts.length - 1;
+		while (lo < hi) {
+			int mid = (lo + hi + 1) >>> 1;
+			if (hapStarts[mid] <= hapPos)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
 	}
 
 	/**
 	 * Get the sequence for the region [start, end] including structure variants
-	 * 
+	 *
 	 * @param start the start position of the region in reference coordinate.
 	 * @param end the end position of the region in reference coordinate.
-	 * @return the sequence in the specified region, including structure variants.
+	 * @return a view of the sequence in the specified region, including
+	 *         structure variants.
 	 */
 	@Override
-	public String get(int start, int end) {
-		StringBuilder sb = new StringBuilder(end-start+10);		
-		Feature f = null;			
-		int pos = start;
-		
-		//Find the first overlapped structure variant.
-		int SVOffset = findFirstOverlappedSV(start, end);			
-		if (SVOffset<0)
-			SVOffset = 0;
-		
-		for (int i=SVOffset; i<sv.size(); ++i){			
-			f = sv.get(i);			
-
-			if (f.start < end && f.end > start) {				
-				if ( pos < f.start )
-					sb.append(super.get(pos, f.start-1));
-				
-				//If it is a deletion, then the next position will be
-				//the position after its end position. 
-				if (f.getClass().getSimpleName().equals("Deletion")) {
-					pos = f.end+1;
-				}
-				//If it is an insertion, then the next position will be
-				//still its end position.
-				else if (f.getClass().getSimpleName().equals("Insertion")) {
-					sb.append(( (Insertion) f).getInserted());
-					pos = f.end+1;					
-				} 				
-				else 
-					throw(new RuntimeException("Unknown SV type."));
-				
-			}
-			if (f.start > end) break;
+	public CharSequence get(int start, int end) {
+		checkRange(start, end);
+		int from = toHaplotype(start, true);
+		int to = toHaplotype(end + 1, false);
+		if (from >= to)
+			return "";
+
+		ArrayList<CharSequence> sb = new ArrayList<CharSequence>();
+		for (int k = pieceByHaplotype(from); k < refStarts.length
+				&& hapStarts[k] < to; ++k) {
+			int s = Math.max(from, hapStarts[k]) - hapStarts[k];
+			int e = Math.min(to, hapStarts[k + 1]) - hapStarts[k];
+			if (inserted[k] != null)
+				sb.add(inserted[k].subSequence(s, e));
+			else
+				sb.add(super.get(refStarts[k] + s, refStarts[k] + e - 1));
 		}
-		if (pos<end)
-			sb.append(super.get(pos, end));
-		
-		return sb.toString();
+		if (sb.size() == 1)
+			return sb.get(0);
+		return new SplicedSequence(sb);
+	}
+
+	/**
+	 * Get the length of the sequence for the region [start, end] including
+	 * structure variants
+	 *
+	 * @param start the start position of the region in reference coordinate.
+	 * @param end the end position of the region in reference coordinate.
+	 * @return the length of the sequence
+	 */
+	@Override
+	public int length(int start, int end) {
+		checkRange(start, end);
+		return Math.max(0, toHaplotype(end + 1, false)
+				- toHaplotype(start, true));
+	}
+
+	/**
+	 * Get the reference position of a base of the sequence for the region
+	 * [start, end]. An inserted base is mapped to the position the insertion
+	 * follows.
+	 *
+	 * @param start the start position of the region in reference coordinate.
+	 * @param end the end position of the region in reference coordinate.
+	 * @param index the 0-based index of the base in the sequence
+	 * @return the reference position of the base
+	 */
+	@Override
+	public int refPos(int start, int end, int index) {
+		int hapPos = toHaplotype(start, true) + index;
+		int k = pieceByHaplotype(hapPos);
+		if (inserted[k] != null)
+			return refStarts[k] - 1;
+		return refStarts[k] + hapPos - hapStarts[k];
 	}
 }
@@ -0,0 +1,238 @@
+package edu.unc.csbio.data;
+
+import java.util.Arrays;
+
+import edu.unc.csbio.util.SequenceView;
+
+/**
+ * The class <code>ReadBatch</code> keeps a batch of read pairs in columns
+ * instead of an object for each read: the bases, the original bases and the
+ * quality scores of all reads in three byte arrays, and the offsets, the
+ * lengths and the strands in arrays of their own. Read <code>r</code> is the
+ * end <code>r % 2</code> of pair <code>r / 2</code>, and its bases start at
+ * <code>r * stride</code>.
+ *
+ * The steps of generating reads work on a whole batch in tight loops over
+ * the arrays, and a batch is reused for the next chunk once it is encoded,
+ * so no object is made for a read. A pair that fails in a step is marked,
+ * skipped by the steps after, and dropped when the batch is compacted.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class ReadBatch {
+	/**
+	 * The complement of each base, keeping its case. The IUPAC codes are
+	 * complemented too, and any other character is complemented to N.
+	 */
+	private static final byte[] COMPLEMENT = new byte[256];
+	static {
+		Arrays.fill(COMPLEMENT, (byte) 'N');
+		String from = "ACGTNRYKMSWBDHVacgtnrykmswbdhv";
+		String to   = "TGCANYRMKSWVHDBtgcanyrmkswvhdb";
+		for (int i = 0; i < from.length(); ++i)
+			COMPLEMENT[from.charAt(i)] = (byte) to.charAt(i);
+	}
+
+	/**
+	 * the maximum number of read pairs
+	 */
+	public final int capacity;
+	/**
+	 * the maximum length of a read, and the distance between the first
+	 * bases of two reads in the arrays
+	 */
+	public final int stride;
+	/**
+	 * the number of read pairs
+	 */
+	public int size = 0;
+	/**
+	 * the current bases of the reads, after modification
+	 */
+	public final byte[] bases;
+	/**
+	 * the original bases of the reads, on the forward strand, before any
+	 * modification
+	 */
+	public final byte[] origins;
+	/**
+	 * the quality scores of the reads, in the order the bases are sequenced
+	 */
+	public final byte[] qualities;
+	/**
+	 * the offsets of the reads in the transcript sequence
+	 */
+	public final int[] offsets;
+	/**
+	 * the lengths of the reads, and the numbers of their quality scores
+	 */
+	public final int[] lengths, qualityLengths;
+	/**
+	 * the strands of the reads: 1 for forward and -1 for reversed
+	 */
+	public final byte[] strands;
+	/**
+	 * whether each pair failed, and is to be dropped
+	 */
+	public final boolean[] failed;
+	/**
+	 * the buffer the bases are copied through from the transcript sequence
+	 */
+	private final char[] scratch;
+
+	/**
+	 * A constructor for an empty <code>ReadBatch</code> object
+	 *
+	 * @param _capacity the maximum number of read pairs
+	 * @param _stride the maximum length of a read
+	 */
+	public ReadBatch(int _capacity, int _stride) {
+		capacity = _capacity;
+		stride = _stride;
+		int reads = 2 * _capacity;
+		bases = new byte[reads * _stride];
+		origins = new byte[reads * _stride];
+		qualities = new byte[reads * _stride];
+		offsets = new int[reads];
+		lengths = new int[reads];
+		qualityLengths = new int[reads];
+		strands = new byte[reads];
+		failed = new boolean[_capacity];
+		scratch = new char[_stride];
+	}
+
+	/**
+	 * Empty the batch, to be filled again.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Set a read to a range of a sequence, on the forward strand.
+	 *
+	 * @param r the index of the read
+	 * @param off the offset of the read in the transcript sequence
+	 * @param seq the sequence the read is copied from
+	 * @param start the index of the first base of the read in the sequence
+	 * @param end the index after the last base of the read in the sequence
+	 */
+	public void set(int r, int off, CharSequence seq, int start, int end) {
+		int n = end - start;
+		if (n > stride)
+			throw (new RuntimeException("Read longer than " + stride + "."));
+		offsets[r] = off;
+		lengths[r] = n;
+		qualityLengths[r] = 0;
+		strands[r] = 1;
+		SequenceView.copy(seq, start, end, scratch, 0);
+		int at = r * stride;
+		for (int i = 0; i < n; ++i)
+			origins[at + i] = (byte) scratch[i];
+		System.arraycopy(origins, at, bases, at, n);
+	}
+
+	/**
+	 * Add a pair to the end of the batch, not failed.
+	 *
+	 * @return the index of the pair
+	 */
+	public int add() {
+		if (size == capacity)
+			throw (new RuntimeException("Read batch full."));
+		failed[size] = false;
+		return size++;
+	}
+
+	/**
+	 * Set the strand of a read. If it is reversed, the bases of the read are
+	 * reverse complemented in place.
+	 *
+	 * @param r the index of the read
+	 * @param isForward true if forward strand, and false if reversed
+	 */
+	public void setStrand(int r, boolean isForward) {
+		byte s = (byte) (isForward ? 1 : -1);
+		if (s != strands[r])
+			reverseComplement(bases, r * stride, r * stride + lengths[r]);
+		strands[r] = s;
+	}
+
+	/**
+	 * Count the bases of a read changed from its original bases, comparing
+	 * on the forward strand.
+	 *
+	 * @param r the index of the read
+	 * @return the number of bases changed
+	 */
+	public int getChanges(int r) {
+		int at = r * stride, n = lengths[r], count = 0;
+		if (strands[r] > 0) {
+			for (int i = at; i < at + n; ++i)
+				if (origins[i] != bases[i])
+					count++;
+		} else {
+			for (int i = 0; i < n; ++i)
+				if (origins[at + i] != COMPLEMENT[bases[at + n - 1 - i] & 0xff])
+					count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Reverse complement a range of bases in place
+	 *
+	 * @param seq the bases
+	 * @param from the index of the first base
+	 * @param to the index after the last base
+	 */
+	private static void reverseComplement(byte[] seq, int from, int to) {
+		for (int i = from, j = to - 1; i <= j; ++i, --j) {
+			byte b = COMPLEMENT[seq[i] & 0xff];
+			seq[i] = COMPLEMENT[seq[j] & 0xff];
+			seq[j] = b;
+		}
+	}
+
+	/**
+	 * Mark a pair as failed, to be dropped when the batch is compacted.
+	 *
+	 * @param i the index of the pair
+	 * @param e the exception the pair failed with
+	 */
+	public void fail(int i, RuntimeException e) {
+		System.out.println("Error occurs in generating read.");
+		e.printStackTrace();
+		failed[i] = true;
+	}
+
+	/**
+	 * Drop the failed pairs, keeping the others in order.
+	 */
+	public void compact() {
+		int kept = 0;
+		for (int i = 0; i < size; ++i) {
+			if (failed[i])
+				continue;
+			if (kept != i) {
+				for (int e = 0; e < 2; ++e) {
+					int from = 2 * i + e, to = 2 * kept + e;
+					System.arraycopy(bases, from * stride, bases, to * stride,
+							lengths[from]);
+					System.arraycopy(origins, from * stride, origins, to
+							* stride, lengths[from]);
+					System.arraycopy(qualities, from * stride, qualities, to
+							* stride, qualityLengths[from]);
+					offsets[to] = offsets[from];
+					lengths[to] = lengths[from];
+					qualityLengths[to] = qualityLengths[from];
+					strands[to] = strands[from];
+				}
+				failed[kept] = false;
+			}
+			++kept;
+		}
+		size = kept;
+	}
+}
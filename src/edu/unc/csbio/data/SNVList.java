@@ -0,0 +1,127 @@
+package edu.unc.csbio.data;
+
+import java.util.Arrays;
+
+import edu.unc.csbio.util.SequenceView;
+import edu.unc.csbio.util.VariantSequence;
+
+/**
+ * The class <code>SNVList</code> keeps the single-nucleotide variants of a
+ * chromosome in two arrays, the positions and the bases replacing the
+ * reference, instead of an object for each variant.
+ *
+ * The variants are added in any order, and then sorted once. The variants of
+ * a window are then found by binary search, and applied to its sequence as a
+ * view, which replaces the bases when they are copied out.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class SNVList {
+	/**
+	 * the positions of the variants
+	 */
+	private int[] positions = new int[16];
+	/**
+	 * the bases replacing the reference
+	 */
+	private byte[] bases = new byte[16];
+	/**
+	 * the number of variants
+	 */
+	private int size = 0;
+
+	/**
+	 * Add a variant.
+	 *
+	 * @param pos the position of the variant
+	 * @param base the base replacing the reference
+	 */
+	public void add(int pos, char base) {
+		if (size == positions.length) {
+			positions = Arrays.copyOf(positions, size * 2);
+			bases = Arrays.copyOf(bases, size * 2);
+		}
+		positions[size] = pos;
+		bases[size] = (byte) base;
+		++size;
+	}
+
+	/**
+	 * Add the bases of a substitution, one variant for each.
+	 *
+	 * @param s the substitution
+	 */
+	public void add(Substitution s) {
+		char[] seq = s.getSubstituted();
+		for (int i = 0; i < seq.length; ++i)
+			add(s.getStart() + i, seq[i]);
+	}
+
+	/**
+	 * Get the number of variants
+	 *
+	 * @return the number of variants
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Sort the variants by position. Of the variants at the same position,
+	 * the one added last is kept.
+	 */
+	public void sort() {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; ++i)
+			sorted = positions[i - 1] < positions[i];
+		if (!sorted) {
+			/* The order of adding breaks ties */
+			long[] keys = new long[size];
+			for (int i = 0; i < size; ++i)
+				keys[i] = ((long) positions[i] << 32) | i;
+			Arrays.sort(keys);
+			int[] p = new int[size];
+			byte[] b = new byte[size];
+			int n = 0;
+			for (int i = 0; i < size; ++i) {
+				int k = (int) keys[i];
+				if (n > 0 && p[n - 1] == positions[k])
+					--n;
+				p[n] = positions[k];
+				b[n] = bases[k];
+				++n;
+			}
+			positions = p;
+			bases = b;
+			size = n;
+		}
+		positions = Arrays.copyOf(positions, size);
+		bases = Arrays.copyOf(bases, size);
+	}
+
+	/**
+	 * Apply the variants to the sequence of a window. The list must be
+	 * sorted.
+	 *
+	 * @param raw the sequence of the window
+	 * @param offset the position of the first base of the window
+	 * @return a view of the sequence with the variants, or the sequence
+	 *         itself if there is no variant in the window
+	 */
+	public CharSequence apply(CharSequence raw, int offset) {
+		int lo = first(offset), hi = first(offset + raw.length());
+		if (lo == hi)
+			return raw;
+		return new VariantSequence(SequenceView.of(raw), offset, positions,
+				bases, lo, hi);
+	}
+
+	/**
+	 * Find the first variant at or after a position.
+	 */
+	private int first(int pos) {
+		int k = Arrays.binarySearch(positions, 0, size, pos);
+		return k < 0 ? -k - 1 : k;
+	}
+}
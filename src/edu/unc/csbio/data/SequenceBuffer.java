@@ -1,5 +1,7 @@
 package edu.unc.csbio.data;
 
+import edu.unc.csbio.util.SequenceView;
+
 /**
  * The class for sequence information, including sequence string and the offset
  * 
@@ -8,9 +10,10 @@ package edu.unc.csbio.data;
  */
 public class SequenceBuffer {
 	/**
-	 * The sequence of the object <code>SequenceBuffer</code>
+	 * The sequence of the object <code>SequenceBuffer</code>, which may be a
+	 * view decoding its bases when they are read
 	 */
-	private String raw = null;
+	private CharSequence raw = null;
 	/**
 	 * The the position difference between the start position of sequence and
 	 * the start position of the reference gene, of the object
@@ -26,8 +29,8 @@ public class SequenceBuffer {
 	 * @param _offset the position difference between the start position of
 	 *            sequence and the start position of the reference gene
 	 * */
-	public SequenceBuffer(String _raw, int _offset) {
-		raw = _raw;
+	public SequenceBuffer(CharSequence _raw, int _offset) {
+		raw = SequenceView.of(_raw);
 		offset = _offset;
 		length = raw.length();
 	}
@@ -37,11 +40,46 @@ public class SequenceBuffer {
 	 * 
 	 * @param start the start position of the region in reference coordinate.
 	 * @param end the end position of the region in reference coordinate.
-	 * @return the sequence in the specified region
+	 * @return a view of the sequence in the specified region
 	 */
-	public String get(int start, int end) {
+	public CharSequence get(int start, int end) {
+		checkRange(start, end);
+		return raw.subSequence(start-offset, end-offset+1);
+	}
+
+	/**
+	 * Check whether the region [start, end] is in the sequence
+	 * 
+	 * @param start the start position of the region in reference coordinate.
+	 * @param end the end position of the region in reference coordinate.
+	 */
+	protected void checkRange(int start, int end) {
 		if (end < offset || start>(offset+length))
 			throw(new RuntimeException("Required sequence out of range"));
-		return raw.substring(start-offset, end-offset+1);
+	}
+
+	/**
+	 * Get the length of the sequence for the region [start, end]
+	 * 
+	 * @param start the start position of the region in reference coordinate.
+	 * @param end the end position of the region in reference coordinate.
+	 * @return the length of the sequence in the specified region
+	 */
+	public int length(int start, int end) {
+		checkRange(start, end);
+		return end - start + 1;
+	}
+
+	/**
+	 * Get the reference position of a base of the sequence for the region
+	 * [start, end]
+	 * 
+	 * @param start the start position of the region in reference coordinate.
+	 * @param end the end position of the region in reference coordinate.
+	 * @param index the 0-based index of the base in the sequence
+	 * @return the reference position of the base
+	 */
+	public int refPos(int start, int end, int index) {
+		return start + index;
 	}
 }
@@ -0,0 +1,44 @@
+package edu.unc.csbio.data;
+
+/**
+ * The class for substitution variant, i.e. a single-nucleotide variant, or
+ * several adjacent bases replaced by as many bases.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class Substitution extends Feature {
+	/**
+	 * An char array of the bases replacing the reference
+	 */
+	char[] substitutedSequence = null;
+
+	/**
+	 * A constructor for <code>Substitution</code> object
+	 *
+	 * @param chrom name of the chromosome
+	 * @param start the position of the first base replaced
+	 * @param sequence the bases replacing the reference
+	 */
+	public Substitution(String chrom, int start, String sequence) {
+		this.chrom = chrom;
+		this.start = start;
+		this.end = start + sequence.length() - 1;
+		this.substitutedSequence = sequence.toCharArray();
+	}
+
+	public char[] getSubstituted() {
+		return substitutedSequence;
+	}
+
+	/**
+	 * A stub method for toString()
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return "Substitution: " + chrom + " " + start + " "
+				+ (new String(substitutedSequence));
+	}
+}
@@ -1,13 +1,23 @@
 package edu.unc.csbio.data;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.TreeSet;
 
 import edu.unc.csbio.data.Exon;
+import edu.unc.csbio.util.SplicedSequence;
 
 /**
  * The class <code>Transcript</code> inherits abstract class
  * <code>Feature</code> and contains information of transcript.
  * 
+ * A transcript is built exon by exon while the annotation is read, and then
+ * frozen. A frozen transcript keeps its exons in sorted arrays with the
+ * cumulative lengths before each exon, so positions in the transcript are
+ * mapped to the reference by binary search, and its length is known at once.
+ * 
  * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
  * @version 0.2
  */
@@ -23,6 +33,17 @@ public class Transcript extends Feature {
 	 * number is reversed to the order of the location.
 	 */
 	private TreeSet<Exon> exons;
+	/**
+	 * The exons ordered by location, and their start and end positions, after
+	 * the transcript is frozen.
+	 */
+	private Exon[] exonArray = null;
+	private int[] exonStarts = null, exonEnds = null;
+	/**
+	 * The length of the exons before each exon, followed by the length of the
+	 * transcript, after the transcript is frozen.
+	 */
+	private int[] offsets = null;
 
 	/**
 	 * A constructor for <code>Transcript</code> object
@@ -48,28 +69,81 @@ public class Transcript extends Feature {
 	}
 
 	/**
-	 * The method to add a new exon
+	 * the method to get the exons of transcript
+	 * 
+	 * @return the exons, ordered by their location
+	 */
+	public List<Exon> getExons() {
+		checkFrozen();
+		return Collections.unmodifiableList(Arrays.asList(exonArray));
+	}
+
+	/**
+	 * The method to add a new exon. Only the exons next to the new one in
+	 * location can overlap it, as the exons added before do not overlap each
+	 * other.
 	 * 
 	 */
 	public void addExon(Exon e) {
+		if (offsets != null)
+			throw (new RuntimeException("transcript " + id + " is frozen"));
 		if (this.chrom == null)
 			this.chrom = e.getChromosome();
 		else if (!this.chrom.equals(e.getChromosome()))
 			throw (new RuntimeException("chromosome in exons not matched"));
 
-		for (Exon exon : exons) {
-			if (exon.getStart() > e.getEnd()
-					|| exon.getEnd() < e.getStart())
-				continue;
-			else
-				throw (new RuntimeException("exons overlapped"));
-		}
+		Exon lower = exons.floor(e);
+		Exon higher = exons.higher(e);
+		if ((lower != null && lower.getEnd() >= e.getStart())
+				|| (higher != null && higher.getStart() <= e.getEnd()))
+			throw (new RuntimeException("exons overlapped"));
 
 		this.start = this.start <= e.getStart() ? this.start : e.getStart();
 		this.end = this.end >= e.getEnd() ? this.end : e.getEnd();
 		this.exons.add(e);
 	}
 
+	/**
+	 * The method to freeze the transcript after all its exons are added. The
+	 * exons are moved into sorted arrays, and no exon can be added afterwards.
+	 * Freezing a frozen transcript does nothing.
+	 */
+	public void freeze() {
+		if (offsets != null)
+			return;
+		int n = exons.size();
+		Exon[] array = exons.toArray(new Exon[n]);
+		int[] starts = new int[n], ends = new int[n], lengths = new int[n + 1];
+		for (int i = 0; i < n; ++i) {
+			starts[i] = array[i].getStart();
+			ends[i] = array[i].getEnd();
+			lengths[i + 1] = lengths[i] + array[i].getLength();
+		}
+		exonArray = array;
+		exonStarts = starts;
+		exonEnds = ends;
+		offsets = lengths;
+		exons = null;
+	}
+
+	private void checkFrozen() {
+		if (offsets == null)
+			throw (new RuntimeException("transcript " + id + " is not frozen"));
+	}
+
+	/**
+	 * Find the exon containing a position in transcript sequence coordinate.
+	 * 
+	 * @return the index of the exon
+	 */
+	private int exonAt(int seqPos) {
+		checkFrozen();
+		if (seqPos < 0 || seqPos >= offsets[exonArray.length])
+			throw (new RuntimeException("bad sequence position"));
+		int k = Arrays.binarySearch(offsets, 0, exonArray.length, seqPos);
+		return k >= 0 ? k : -k - 2;
+	}
+
 	/**
 	 * The method to convert a position in transcript sequence coordinate to
 	 * the reference coordinate
@@ -77,26 +151,84 @@ public class Transcript extends Feature {
 	 * @return the position in reference gene
 	 */
 	public int refPos(int seqPos) {
-		int count = 0;
-		for (Exon exon : exons) {
-			if (count + exon.getLength() > seqPos)
-				return exon.getStart() + seqPos - count;
-			else
-				count += exon.getLength();
-		}
-		throw (new RuntimeException("bad sequence position"));
+		int k = exonAt(seqPos);
+		return exonStarts[k] + seqPos - offsets[k];
+	}
+
+	/**
+	 * The method to get the length of the exons before each exon in the
+	 * sequence of the transcript from a sequence buffer, which differs from
+	 * the reference if structure variants are applied.
+	 * 
+	 * @param buffer a sequence buffer
+	 * @return the length of the exons before each exon, followed by the
+	 *         length of the transcript sequence
+	 */
+	public int[] offsetsIn(SequenceBuffer buffer) {
+		checkFrozen();
+		int[] ret = new int[exonArray.length + 1];
+		for (int i = 0; i < exonArray.length; ++i)
+			ret[i + 1] = ret[i] + buffer.length(exonStarts[i], exonEnds[i]);
+		return ret;
+	}
+
+	/**
+	 * The method to convert a position in the transcript sequence from a
+	 * sequence buffer to the reference coordinate, e.g. for a read spanning
+	 * an insertion or a deletion.
+	 * 
+	 * @param seqPos the 0-based position in the transcript sequence
+	 * @param seqOffsets the offsets of the exons given by
+	 *            <code>offsetsIn(buffer)</code>
+	 * @param buffer the sequence buffer
+	 * @return the position in reference gene
+	 */
+	public int refPos(int seqPos, int[] seqOffsets, SequenceBuffer buffer) {
+		checkFrozen();
+		if (seqPos < 0 || seqPos >= seqOffsets[exonArray.length])
+			throw (new RuntimeException("bad sequence position"));
+		int k = Arrays.binarySearch(seqOffsets, 0, exonArray.length, seqPos);
+		if (k < 0)
+			k = -k - 2;
+		/* Skip the exons deleted entirely */
+		while (seqOffsets[k + 1] == seqPos)
+			++k;
+		return buffer.refPos(exonStarts[k], exonEnds[k], seqPos
+				- seqOffsets[k]);
 	}
 
 	/**
 	 * The method to get a transcript sequence from a sequence buffer. 
 	 * @param motherSequence a sequence buffer
-	 * @return a transcript sequence
+	 * @return a view of the transcript sequence, stitching the exons without
+	 *         copying them
+	 */
+	public CharSequence getSequence(SequenceBuffer motherSequence) {
+		checkFrozen();
+		ArrayList<CharSequence> ret = new ArrayList<CharSequence>(
+				exonArray.length);
+		for (Exon exon : exonArray)
+			ret.add(exon.getSequence(motherSequence));
+		if (ret.size() == 1)
+			return ret.get(0);
+		return new SplicedSequence(ret);
+	}
+
+	/**
+	 * The method to get a transcript sequence through an exon cache, so the
+	 * exons shared with other transcripts are extracted once.
+	 * @param cache an exon cache of a sequence buffer
+	 * @return a view of the transcript sequence
 	 */
-	public String getSequence(SequenceBuffer motherSequence) {
-		StringBuilder ret = new StringBuilder(this.getLength());
-		for (Exon exon : exons)
-			ret.append(exon.getSequence(motherSequence));
-		return ret.toString();
+	public CharSequence getSequence(ExonCache cache) {
+		checkFrozen();
+		if (exonArray.length == 1)
+			return cache.get(exonArray[0]);
+		ArrayList<CharSequence> ret = new ArrayList<CharSequence>(
+				exonArray.length);
+		for (Exon exon : exonArray)
+			ret.add(cache.get(exon));
+		return new SplicedSequence(ret);
 	}
 
 	/**
@@ -106,10 +238,8 @@ public class Transcript extends Feature {
 	 */
 	@Override
 	public int getLength() {
-		int length = 0;
-		for (Exon exon : exons)
-			length += exon.getLength();
-		return length;
+		checkFrozen();
+		return offsets[exonArray.length];
 	}
 
 	/**
@@ -126,7 +256,7 @@ public class Transcript extends Feature {
 				+ this.getEnd() + "{";
 		
 		int i = 0; 
-		for (Exon exon : exons) {
+		for (Exon exon : exonArray != null ? Arrays.asList(exonArray) : exons) {
 			ret += (i > 0 ? "," : "") + exon;
 			++i;
 		}
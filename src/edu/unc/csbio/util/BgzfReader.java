@@ -0,0 +1,352 @@
+package edu.unc.csbio.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The class <code>BgzfReader</code> gives random access to the uncompressed
+ * bytes of a file compressed by bgzip. A BGZF file is a series of gzip
+ * members, each holding at most 64 KB of data, so a range of the data can be
+ * read by inflating only the blocks overlapping it.
+ *
+ * The blocks are located by a .gzi index in the layout of htslib, which is
+ * built and written next to the file if it does not exist. A file can also
+ * be read by the virtual offsets of htslib indices, e.g. tabix, which give
+ * the compressed offset of a block and an offset in its data, and need no
+ * .gzi index. The inflated blocks are kept in a small LRU cache, so adjacent
+ * ranges do not inflate the same block again. A reader can be used by many
+ * threads at the same time.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class BgzfReader {
+	/**
+	 * the number of inflated blocks kept in the cache
+	 */
+	private static final int CACHE_BLOCKS = 256;
+	/**
+	 * the channel of the compressed file
+	 */
+	private final FileChannel channel;
+	/**
+	 * the size of the compressed file
+	 */
+	private final long size;
+	/**
+	 * the compressed and the uncompressed offsets of the blocks, or null if
+	 * the file is only read by virtual offsets
+	 */
+	private final long[] cOffsets, uOffsets;
+	/**
+	 * the inflated blocks used most recently, by their compressed offsets
+	 */
+	private final LinkedHashMap<Long, Block> cache = new LinkedHashMap<Long, Block>(
+			16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Block> eldest) {
+			return size() > CACHE_BLOCKS;
+		}
+	};
+
+	/**
+	 * An inflated block and the size of its compressed form
+	 */
+	private static class Block {
+		byte[] data;
+		int size;
+	}
+	/**
+	 * the inflater of each thread
+	 */
+	private final ThreadLocal<Inflater> inflater = new ThreadLocal<Inflater>() {
+		@Override
+		protected Inflater initialValue() {
+			return new Inflater(true);
+		}
+	};
+
+	/**
+	 * Check whether a file is compressed by gzip, which includes BGZF.
+	 *
+	 * @param file the name of the file
+	 * @return true if the file starts with the gzip magic number
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public static boolean isGzipped(String file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return in.read() == 0x1f && in.read() == 0x8b;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * A constructor for <code>BgzfReader</code> object. The index file is the
+	 * file name followed by ".gzi".
+	 *
+	 * @param dataFile the name of the BGZF file
+	 * @throws IOException
+	 *             if an input or output exception occurred, or the file is
+	 *             not in BGZF
+	 */
+	public BgzfReader(String dataFile) throws IOException {
+		this(dataFile, true);
+	}
+
+	/**
+	 * A constructor for <code>BgzfReader</code> object.
+	 *
+	 * @param dataFile the name of the BGZF file
+	 * @param positional whether the uncompressed data is read by position,
+	 *            which needs the .gzi index; otherwise the file is only read
+	 *            by virtual offsets
+	 * @throws IOException
+	 *             if an input or output exception occurred, or the file is
+	 *             not in BGZF
+	 */
+	public BgzfReader(String dataFile, boolean positional) throws IOException {
+		channel = new RandomAccessFile(dataFile, "r").getChannel();
+		size = channel.size();
+		if (!positional) {
+			cOffsets = null;
+			uOffsets = null;
+			return;
+		}
+		String indexFile = dataFile + ".gzi";
+		long[][] index = null;
+		if (new File(indexFile).exists())
+			index = readIndex(indexFile);
+		else {
+			System.out.println("Index file [" + indexFile + "] not found.");
+			System.out.println("Building Index ... ");
+			index = buildIndex(dataFile);
+			writeIndex(indexFile, index);
+		}
+		cOffsets = index[0];
+		uOffsets = index[1];
+	}
+
+	/**
+	 * Read a .gzi file: the number of entries, followed by the compressed and
+	 * uncompressed offsets of each block but the first, all as little endian
+	 * 64-bit integers.
+	 */
+	private static long[][] readIndex(String indexFile) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile)));
+		try {
+			int n = (int) Long.reverseBytes(in.readLong());
+			long[][] index = new long[2][n + 1];
+			for (int i = 1; i <= n; ++i) {
+				index[0][i] = Long.reverseBytes(in.readLong());
+				index[1][i] = Long.reverseBytes(in.readLong());
+			}
+			return index;
+		} catch (EOFException e) {
+			throw (new IOException("Index file [" + indexFile
+					+ "] is truncated."));
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void writeIndex(String indexFile, long[][] index)
+			throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(indexFile)));
+		try {
+			int n = index[0].length - 1;
+			out.writeLong(Long.reverseBytes(n));
+			for (int i = 1; i <= n; ++i) {
+				out.writeLong(Long.reverseBytes(index[0][i]));
+				out.writeLong(Long.reverseBytes(index[1][i]));
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Build the index by walking through the headers of the blocks.
+	 */
+	private long[][] buildIndex(String dataFile) throws IOException {
+		long[] c = new long[1024], u = new long[1024];
+		int n = 0;
+		long cPos = 0, uPos = 0;
+		while (cPos < size) {
+			if (n == c.length) {
+				c = Arrays.copyOf(c, n * 2);
+				u = Arrays.copyOf(u, n * 2);
+			}
+			c[n] = cPos;
+			u[n] = uPos;
+			++n;
+			int blockSize = blockSize(cPos, dataFile);
+			uPos += read(cPos + blockSize - 4, 4).getInt(0) & 0xffffffffL;
+			cPos += blockSize;
+		}
+		if (n == 0) {
+			c[0] = 0;
+			u[0] = 0;
+			n = 1;
+		}
+		return new long[][] { Arrays.copyOf(c, n), Arrays.copyOf(u, n) };
+	}
+
+	/**
+	 * Get the size of the block at an offset from the BC subfield of its
+	 * header.
+	 */
+	private int blockSize(long pos, String name) throws IOException {
+		ByteBuffer header = read(pos, 12);
+		if ((header.get(0) & 0xff) != 0x1f || (header.get(1) & 0xff) != 0x8b
+				|| (header.get(3) & 4) == 0)
+			throw (new IOException("[" + name
+					+ "] is not in BGZF; compress it with bgzip."));
+		int xlen = header.getShort(10) & 0xffff;
+		ByteBuffer extra = read(pos + 12, xlen);
+		for (int i = 0; i + 4 <= xlen;) {
+			int slen = extra.getShort(i + 2) & 0xffff;
+			if (extra.get(i) == 'B' && extra.get(i + 1) == 'C' && slen == 2)
+				return (extra.getShort(i + 4) & 0xffff) + 1;
+			i += 4 + slen;
+		}
+		throw (new IOException("[" + name
+				+ "] is not in BGZF; compress it with bgzip."));
+	}
+
+	private ByteBuffer read(long pos, int size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(size).order(
+				ByteOrder.LITTLE_ENDIAN);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) < 0)
+				throw (new EOFException("Unexpected end of BGZF file."));
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Get the inflated data of a block, from the cache if it is there.
+	 */
+	private Block block(long pos) throws IOException {
+		synchronized (cache) {
+			Block b = cache.get(pos);
+			if (b != null)
+				return b;
+		}
+
+		int blockSize = blockSize(pos, "BGZF file");
+		ByteBuffer block = read(pos, blockSize);
+		int xlen = block.getShort(10) & 0xffff;
+		int isize = block.getInt(blockSize - 4);
+		Block b = new Block();
+		b.data = new byte[isize];
+		b.size = blockSize;
+		Inflater inf = inflater.get();
+		inf.reset();
+		inf.setInput(block.array(), 12 + xlen, blockSize - 12 - xlen - 8);
+		try {
+			if (inf.inflate(b.data) != isize)
+				throw (new IOException("Corrupted BGZF block at " + pos + "."));
+		} catch (DataFormatException e) {
+			throw (new IOException("Corrupted BGZF block at " + pos + "."));
+		}
+
+		synchronized (cache) {
+			cache.put(pos, b);
+		}
+		return b;
+	}
+
+	/**
+	 * Get the inflated data of the block at a compressed offset, e.g. the
+	 * block of a virtual offset.
+	 *
+	 * @param pos the compressed offset of the block
+	 * @return the inflated data, which must not be changed
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public byte[] inflate(long pos) throws IOException {
+		return block(pos).data;
+	}
+
+	/**
+	 * Get the compressed offset of the block after a block.
+	 *
+	 * @param pos the compressed offset of a block
+	 * @return the compressed offset of the next block, or -1 if it is the
+	 *         last block of the file
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public long nextBlock(long pos) throws IOException {
+		long next = pos + block(pos).size;
+		return next < size ? next : -1;
+	}
+
+	/**
+	 * Copy uncompressed bytes of the file.
+	 *
+	 * @param pos the uncompressed offset of the first byte
+	 * @param dest the destination
+	 * @param off the offset in the destination
+	 * @param len the number of bytes
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public void read(long pos, byte[] dest, int off, int len)
+			throws IOException {
+		if (uOffsets == null)
+			throw (new IOException("BGZF file opened without .gzi index."));
+		int k = Arrays.binarySearch(uOffsets, pos);
+		if (k < 0)
+			k = -k - 2;
+		while (len > 0) {
+			if (k >= uOffsets.length)
+				throw (new EOFException("Unexpected end of BGZF file."));
+			byte[] data = block(cOffsets[k]).data;
+			int inBlock = (int) (pos - uOffsets[k]);
+			int n = Math.min(len, data.length - inBlock);
+			if (n > 0) {
+				System.arraycopy(data, inBlock, dest, off, n);
+				pos += n;
+				off += n;
+				len -= n;
+			}
+			++k;
+		}
+	}
+
+	/**
+	 * Close the file
+	 *
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -1,55 +1,75 @@
 package edu.unc.csbio.util;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
-//import java.io.RandomAccessFile;
-//import java.util.HashMap;
-import java.util.TreeMap;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 
 /**
  * this class is for reading data from a fasta file, and reading/generating an
  * index file
- * 
+ *
+ * The index is in the .fai layout of samtools, so an index built by
+ * "samtools faidx" can be used. The byte offset of any base is computed from
+ * the index, and the bases are read from memory-mapped segments of the file.
+ *
+ * A Fasta file compressed by bgzip, e.g. ".fa.gz", is also accepted. Its
+ * bases are read by inflating only the blocks overlapping the range, located
+ * by the ".gzi" index, as with "samtools faidx".
+ *
+ * A reader has no mutable state shared between calls, so one reader can be
+ * used by many threads at the same time.
+ *
  * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
  * @version 0.1
  */
-public class BigFaReader {
+public class BigFaReader implements SequenceSource {
 	/**
-	 * end of line character
+	 * the size of a mapped segment of the fasta file
 	 */
-	private final static String ENDOFLINE = "\n";
+	private static final int SEGMENT = 1 << 30;
 	/**
-	 * length end of line character
+	 * name of fasta file
 	 */
-	private static int EXTRA = ENDOFLINE.length();
+	private final String dataFile;
 	/**
-	 * name of fasta file
+	 * this maps a chromosome name to its offset and line lengths
 	 */
-	private static String dataFile = null;
+	private final FastaIndex index;
 	/**
-	 * name of index file
+	 * the mapped segments of the fasta file
 	 */
-	private String indexFile = null;
+	private final MappedByteBuffer[] segments;
 	/**
-	 * obtains input bytes from given <code>fasta</code> in a file system
+	 * the reader of the compressed fasta file, or null if it is plain text
 	 */
-	private static FileInputStream fis = null;
+	private final BgzfReader bgzf;
 	/**
-	 * this maps a chromosome name to its starting offset and line length
+	 * the size of the buffer the bytes of the file are copied through
 	 */
-	private static TreeMap<String, String[]> indexMap;
+	private static final int SCRATCH = 1 << 16;
+	/**
+	 * the buffer of each thread the bytes of the file are copied through,
+	 * which never grows, whatever the length of the range
+	 */
+	private final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+		@Override
+		protected byte[] initialValue() {
+			return new byte[SCRATCH];
+		}
+	};
 
 	/**
 	 * This is the constructor of object <code>BigFaReader</code>. It will
 	 * access given fasta file. If there is a corresponding index file, it will
 	 * read index data from the file; else, it will generate an index file.
-	 * 
+	 *
+	 * The index file is the fasta file name followed by ".fai". An ".idx" file
+	 * built by earlier versions is used if there is no ".fai" file.
+	 *
 	 * @param _dataFile
 	 *            name of fasta file
 	 * @throws IOException
@@ -57,150 +77,103 @@ public class BigFaReader {
 	 */
 	public BigFaReader(String _dataFile) throws IOException {
 		dataFile = _dataFile;
-		indexFile = _dataFile + ".idx";
-
-		BufferedReader br = null;
-		String line = null;
-		indexMap = new TreeMap<String, String[]>();
+		String indexFile = _dataFile + ".fai";
+		String oldIndexFile = _dataFile + ".idx";
 
 		/* Try to access the Fasta file */
-		try {
-			fis = new FileInputStream(dataFile);
-		} catch (FileNotFoundException e) {
-			throw (e);
+		if (BgzfReader.isGzipped(dataFile)) {
+			bgzf = new BgzfReader(dataFile);
+			segments = new MappedByteBuffer[0];
+		} else {
+			bgzf = null;
+			segments = mapSegments(dataFile);
 		}
 
 		/* Try to access the Index file */
-		try {
-			br = new BufferedReader(new FileReader(indexFile));
-			try {
-				while ((line = br.readLine()) != null) {
-					if (line.length() <= 0)
-						continue;
-					String[] map = line.split("\t");
-					// if (map[0].compareTo(chr) == 0) {
-					// globalOffset = Long.parseLong(map[2]);
-					// charPerLine = Integer.parseInt(map[3]);
-					// // System.out.println(offset);
-					// }
-					indexMap.put(map[0], new String[] { map[2], map[3] });
-				}
-			} finally {
-				br.close();
-			}
-		} catch (FileNotFoundException e) {
+		if (new File(indexFile).exists())
+			index = FastaIndex.read(indexFile);
+		else if (new File(oldIndexFile).exists())
+			index = FastaIndex.read(oldIndexFile);
+		else {
 			System.out.println("Index file [" + indexFile + "] not found.");
-			buildIndex(dataFile);
-		} catch (IOException e) {
-			throw (e);
+			System.out.println("Building Index ... ");
+			index = FastaIndex.build(dataFile);
+			index.write(indexFile);
 		}
 	}
 
 	/**
-	 * This method will generate an index file from <code>dataFile</code>. For
-	 * every chromomsome in the <code>dataFile</code>, the method will append
-	 * chromomsome's size, starting offset, line length and line length
-	 * including the new line character.
-	 * 
-	 * @param dataFile
-	 *            fasta file
+	 * Map the fasta file in segments.
 	 */
-	private static void buildIndex(String dataFile) {
-		System.out.println("Building Index ... ");
-		String indexFile = dataFile + ".idx";
+	private static MappedByteBuffer[] mapSegments(String dataFile)
+			throws IOException {
+		MappedByteBuffer[] segments = null;
+		RandomAccessFile raf = new RandomAccessFile(dataFile, "r");
 		try {
-			StringBuilder sb = new StringBuilder();
-			BufferedReader br = new BufferedReader(new FileReader(dataFile));
-			String line = null;
-			String tmp = null;
-			long offset = 0;
-			long chrSize = 0;
-			long chrOffset = 0;
-			int lineLength = 0;
-
-			boolean isFirst = true;
-			while ((line = br.readLine()) != null) {
-				offset += (line.length() + EXTRA);
-				if (line.length() <= 0)
-					continue;
-				if (line.charAt(0) == ';')
-					continue;
-				if (line.charAt(0) == '>') {
-					if (!isFirst) {
-						// if (tmp.compareTo(chr) == 0) {
-						// globalOffset = chrOffset;
-						// charPerLine = lineLength;
-						// }
-						sb.append(tmp);
-						sb.append("\t");
-						sb.append(Long.toString(chrSize));
-						sb.append("\t");
-						sb.append(Long.toString(chrOffset));
-						sb.append("\t");
-						sb.append(Long.toString(lineLength));
-						sb.append("\t");
-						sb.append(Long.toString(lineLength + EXTRA));
-						sb.append("\t");
-						sb.append(ENDOFLINE);
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			segments = new MappedByteBuffer[(int) ((size + SEGMENT - 1) / SEGMENT)];
+			for (int i = 0; i < segments.length; ++i) {
+				long pos = (long) i * SEGMENT;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+						Math.min(SEGMENT, size - pos));
+			}
+		} finally {
+			/* The mapped segments stay valid after the file is closed. */
+			raf.close();
+		}
+		return segments;
+	}
 
-						indexMap.put(
-								tmp,
-								new String[] { Long.toString(chrOffset),
-										Long.toString(lineLength) });
+	/**
+	 * Get the name of the fasta file
+	 *
+	 * @return the name of the fasta file
+	 */
+	public String getDataFile() {
+		return dataFile;
+	}
 
-						chrSize = 0;
-						chrOffset = 0;
-						lineLength = 0;
-					}
-					isFirst = false;
-					lineLength = 0;
-					int pos = line.indexOf(' ');
-					if (pos == -1)
-						pos = line.length();
-					tmp = line.substring(1, pos);
-					chrOffset = offset;
-				} else {
-					chrSize += line.length();
-					if (lineLength < line.length())
-						lineLength = line.length();
-				}
-			}
-			// if (tmp.compareTo(chr) == 0) {
-			// globalOffset = chrOffset;
-			// charPerLine = lineLength;
-			// }
-			sb.append(tmp);
-			sb.append("\t");
-			sb.append(Long.toString(chrSize));
-			sb.append("\t");
-			sb.append(Long.toString(chrOffset));
-			sb.append("\t");
-			sb.append(Long.toString(lineLength));
-			sb.append("\t");
-			sb.append(Long.toString(lineLength + EXTRA));
-			sb.append("\t");
-			sb.append(ENDOFLINE);
+	/**
+	 * Get the index of the fasta file
+	 *
+	 * @return the index
+	 */
+	public FastaIndex getIndex() {
+		return index;
+	}
 
-			br.close();
-			BufferedWriter bw = new BufferedWriter(new FileWriter(indexFile));
-			// bw.append(Integer.toString(charPerLine));
-			// bw.append("\n");
-			bw.append(sb.toString());
-			bw.close();
-		} catch (FileNotFoundException e) {
-			System.err.println("Data file not found.");
-			System.err.println("Abort!");
-			System.exit(1);
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
+	/**
+	 * Copy bytes of the fasta file, which may span two segments, or bytes of
+	 * the uncompressed data of a compressed fasta file.
+	 */
+	private void copy(long pos, byte[] dest, int off, int len)
+			throws IOException {
+		if (bgzf != null) {
+			bgzf.read(pos, dest, off, len);
+			return;
+		}
+		while (len > 0) {
+			int inSegment = (int) (pos % SEGMENT);
+			int n = Math.min(len, SEGMENT - inSegment);
+			/*
+			 * A duplicate has its own position, so the segment can be read by
+			 * many threads at the same time.
+			 */
+			ByteBuffer buf = segments[(int) (pos / SEGMENT)].duplicate();
+			buf.position(inSegment);
+			buf.get(dest, off, n);
+			pos += n;
+			off += n;
+			len -= n;
 		}
 	}
 
 	/**
 	 * this method is for getting data given start and end position in one
-	 * chromosome
-	 * 
+	 * chromosome. The positions are 1-based and inclusive, and the range is
+	 * cut at the end of the chromosome.
+	 *
 	 * @param chr
 	 *            chromosome ID
 	 * @param start
@@ -211,103 +184,54 @@ public class BigFaReader {
 	 * @throws IOException
 	 *             if an input or output exception occurred
 	 */
-	public static String getData(String chr, int start, int end)
-			throws IOException {
+	public String getData(String chr, int start, int end) throws IOException {
 		if (end < start)
 			throw (new RuntimeException(
 					"End position smaller than start position."));
 
-		long globalOffset = -1;
-		if (indexMap.containsKey(chr))
-			globalOffset = Long.parseLong(indexMap.get(chr)[0]);
-		else if (indexMap.containsKey("chr" + chr))
-			globalOffset = Long.parseLong(indexMap.get("chr" + chr)[0]);
-		else
+		FastaIndex.Entry e = index.get(chr);
+		if (e == null)
 			throw (new RuntimeException("Chromosome " + chr
 					+ " not found in Fasta file."));
 
-		fis.getChannel().position(globalOffset);
-
-		BufferedReader br = null;
-		br = new BufferedReader(new InputStreamReader(fis));
-
-		// int numOfLines = 0;
-		String line = null;
-		int count = 0;
-		int rest = end - start + 1;
+		long first = start > 0 ? start - 1 : 0;
+		long last = Math.min(first + end - start, e.length - 1);
+		if (last < first)
+			return "";
 
 		/*
-		 * Use StringBuilder if frequent concatenation is needed. It is far more
-		 * efficient than String + .
+		 * Copy the bytes spanned by the range through the scratch buffer, a
+		 * buffer at a time, and move the bases of each line straight into the
+		 * bases of the range, skipping the ends of line.
 		 */
-		StringBuilder ret = new StringBuilder(rest);
-
-		try {
-			while ((line = br.readLine()) != null) {
-				if (count + line.length() >= start) {
-					// System.out.println(start+" "+count);
-
-					int lineStartPos = start > count ? start - count - 1 : 0;
-					ret.append(line.substring(lineStartPos,
-							lineStartPos + rest <= line.length() ? lineStartPos
-									+ rest : line.length()));
-					// System.out.println(ret.length());
-					// System.out.println(ret);
-
-					rest -= (line.length() - lineStartPos);
-					if (rest <= 0)
-						break;
-				}
-				count += line.length();
+		int n = (int) (last - first + 1);
+		long pos = e.offsetOf(first), stop = e.offsetOf(last) + 1;
+		byte[] buf = scratch.get();
+		byte[] bases = new byte[n];
+		int done = 0, col = (int) (first % e.lineBases);
+		while (pos < stop) {
+			int len = (int) Math.min(buf.length, stop - pos);
+			copy(pos, buf, 0, len);
+			pos += len;
+			for (int k = 0; k < len;) {
+				int m;
+				if (col < e.lineBases) {
+					m = Math.min(len - k, e.lineBases - col);
+					System.arraycopy(buf, k, bases, done, m);
+					done += m;
+				} else
+					m = Math.min(len - k, e.lineWidth - col);
+				k += m;
+				col += m;
+				if (col == e.lineWidth)
+					col = 0;
 			}
-		} finally {
-			// Cannot close here because it will also close InputStreamReader.
-			// br.close();
-			br = null;
 		}
-		return ret.toString();
+		return new String(bases, 0, n, StandardCharsets.US_ASCII);
 	}
 
-	// Implementation using RandomAccessFile.
-	//
-	// Drawback: run slowly.
-	//
-	// public static String getData(String chr, long start, long end) {
-	// if (end < start) {
-	// System.err.println("end smaller than start.");
-	// System.err.println("Abort!");
-	// System.exit(1);
-	// }
-	//
-	// long globalOffset = Long.parseLong(indexMap.get(chr)[0]);
-	// long charPerLine = Long.parseLong(indexMap.get(chr)[1]);
-	//
-	// // BuildIndex(dataFile);
-	//
-	// String line = null;
-	//
-	// StringBuilder sb = new StringBuilder();
-	// long length = 0;
-	// long readLength = end - start + 1;
-	// long adjustment = start / charPerLine * EXTRA;
-	// try {
-	// raf.seek(globalOffset + start + adjustment);
-	// while ((line = raf.readLine()) != null) {
-	// // System.out.println(line);
-	// if (length + line.length() < readLength) {
-	// sb.append(line);
-	// length += line.length();
-	// } else {
-	// line = line.substring(0, (int) (readLength - length));
-	// sb.append(line);
-	// length += line.length();
-	// break;
-	// }
-	// }
-	// } catch (IOException e) {
-	// e.printStackTrace();
-	// }
-	// // System.out.println(sb.toString());
-	// return sb.toString();
-	// }
+	@Override
+	public CharSequence get(String chr, int start, int end) throws IOException {
+		return getData(chr, start, end);
+	}
 }
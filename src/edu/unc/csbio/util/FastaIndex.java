@@ -0,0 +1,295 @@
+package edu.unc.csbio.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The class <code>FastaIndex</code> is the index of a Fasta file in the
+ * layout of the .fai files of samtools. Each line describes one sequence by
+ * five tab separated columns: the name, the number of bases, the byte offset
+ * of the first base, the number of bases per line and the number of bytes per
+ * line including the end of line. As all lines of a sequence but the last
+ * have the same length, the byte offset of any base is computed directly.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class FastaIndex {
+	/**
+	 * The class <code>Entry</code> is the index of one sequence.
+	 */
+	public static class Entry {
+		/**
+		 * the name of the sequence
+		 */
+		public final String name;
+		/**
+		 * the number of bases
+		 */
+		public final long length;
+		/**
+		 * the byte offset of the first base
+		 */
+		public final long offset;
+		/**
+		 * the number of bases per line
+		 */
+		public final int lineBases;
+		/**
+		 * the number of bytes per line, including the end of line
+		 */
+		public final int lineWidth;
+
+		/**
+		 * A constructor for <code>Entry</code> object
+		 *
+		 * @param _name the name of the sequence
+		 * @param _length the number of bases
+		 * @param _offset the byte offset of the first base
+		 * @param _lineBases the number of bases per line
+		 * @param _lineWidth the number of bytes per line
+		 */
+		public Entry(String _name, long _length, long _offset, int _lineBases,
+				int _lineWidth) {
+			name = _name;
+			length = _length;
+			offset = _offset;
+			lineBases = _lineBases;
+			lineWidth = _lineWidth;
+		}
+
+		/**
+		 * Get the byte offset of a base.
+		 *
+		 * @param i the 0-based position of the base in the sequence
+		 * @return the byte offset of the base in the Fasta file
+		 */
+		public long offsetOf(long i) {
+			if (lineBases == 0)
+				return offset;
+			return offset + (i / lineBases) * lineWidth + i % lineBases;
+		}
+
+		/**
+		 * Get the number of bytes from the first base to the end of the last
+		 * base.
+		 *
+		 * @return the number of bytes spanned by the sequence
+		 */
+		public long span() {
+			if (length == 0)
+				return 0;
+			return offsetOf(length - 1) + 1 - offset;
+		}
+	}
+
+	/**
+	 * the entries in the order of the Fasta file
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	/**
+	 * Get the entry of a sequence. As some annotations omit the "chr" prefix
+	 * of chromosome names, "chr" + name is also tried.
+	 *
+	 * @param name the name of the sequence
+	 * @return the entry, or null if the sequence is not indexed
+	 */
+	public Entry get(String name) {
+		Entry e = entries.get(name);
+		if (e == null)
+			e = entries.get("chr" + name);
+		return e;
+	}
+
+	/**
+	 * Get all entries
+	 *
+	 * @return the entries in the order of the Fasta file
+	 */
+	public ArrayList<Entry> getEntries() {
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	private void add(Entry e) throws IOException {
+		if (entries.containsKey(e.name))
+			throw (new IOException("Sequence " + e.name
+					+ " found twice in Fasta file."));
+		entries.put(e.name, e);
+	}
+
+	/**
+	 * Read an index file. Columns after the fifth are ignored, so the .idx
+	 * files written by earlier versions can be read too.
+	 *
+	 * @param indexFile the name of the index file
+	 * @return the index
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public static FastaIndex read(String indexFile) throws IOException {
+		FastaIndex index = new FastaIndex();
+		BufferedReader br = new BufferedReader(new FileReader(indexFile));
+		try {
+			String line = null;
+			while ((line = br.readLine()) != null) {
+				if (line.length() <= 0)
+					continue;
+				String[] cols = line.split("\t");
+				if (cols.length < 5)
+					throw (new IOException("Malformed line in index file ["
+							+ indexFile + "]: " + line));
+				index.add(new Entry(cols[0], Long.parseLong(cols[1]), Long
+						.parseLong(cols[2]), Integer.parseInt(cols[3]), Integer
+						.parseInt(cols[4])));
+			}
+		} finally {
+			br.close();
+		}
+		return index;
+	}
+
+	/**
+	 * Write the index in the .fai layout.
+	 *
+	 * @param indexFile the name of the index file
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public void write(String indexFile) throws IOException {
+		BufferedWriter bw = new BufferedWriter(new FileWriter(indexFile));
+		try {
+			for (Entry e : entries.values()) {
+				bw.append(e.name);
+				bw.append("\t");
+				bw.append(Long.toString(e.length));
+				bw.append("\t");
+				bw.append(Long.toString(e.offset));
+				bw.append("\t");
+				bw.append(Integer.toString(e.lineBases));
+				bw.append("\t");
+				bw.append(Integer.toString(e.lineWidth));
+				bw.append("\n");
+			}
+		} finally {
+			bw.close();
+		}
+	}
+
+	/**
+	 * Build the index of a Fasta file. The name of a sequence is the header up
+	 * to the first white space. Both "\n" and "\r\n" ends of line are
+	 * accepted. As with samtools, all lines of a sequence but the last must
+	 * have the same length. The offsets of a compressed Fasta file are the
+	 * offsets in the uncompressed data.
+	 *
+	 * @param dataFile the name of the Fasta file
+	 * @return the index
+	 * @throws IOException
+	 *             if an input or output exception occurred, or the lines of a
+	 *             sequence have different lengths
+	 */
+	public static FastaIndex build(String dataFile) throws IOException {
+		FastaIndex index = new FastaIndex();
+		InputStream in = null;
+		if (BgzfReader.isGzipped(dataFile))
+			in = new BufferedInputStream(new GZIPInputStream(
+					new FileInputStream(dataFile), 1 << 16), 1 << 20);
+		else
+			in = new BufferedInputStream(new FileInputStream(dataFile),
+					1 << 20);
+		try {
+			StringBuilder header = new StringBuilder();
+			String name = null;
+			long length = 0, offset = 0;
+			int lineBases = 0, lineWidth = 0;
+			/* a line shorter than the others has been seen in the sequence */
+			boolean shortLine = false;
+
+			long pos = 0; // the offset of the current byte
+			int lineLength = 0; // the bytes in the line before the end of line
+			int first = -1; // the first byte of the line
+			boolean cr = false;
+			int b;
+			while (true) {
+				b = in.read();
+				if (b != '\n' && b != -1) {
+					if (lineLength == 0)
+						first = b;
+					else if (first == '>')
+						header.append((char) b);
+					cr = (b == '\r');
+					++lineLength;
+					++pos;
+					continue;
+				}
+
+				/* A line is completed */
+				int bases = cr ? lineLength - 1 : lineLength;
+				int width = lineLength + (b == -1 ? 0 : 1);
+				if (first == '>') {
+					if (name != null)
+						index.add(new Entry(name, length, offset, lineBases,
+								lineWidth));
+					String h = header.toString().trim();
+					int ws = 0;
+					while (ws < h.length()
+							&& !Character.isWhitespace(h.charAt(ws)))
+						++ws;
+					name = h.substring(0, ws);
+					header.setLength(0);
+					length = 0;
+					offset = pos + 1;
+					lineBases = 0;
+					lineWidth = 0;
+					shortLine = false;
+				} else if (first == ';') {
+					/* Comments are only allowed before the bases */
+					if (length > 0)
+						throw (new IOException("Comment inside sequence "
+								+ name + " of Fasta file [" + dataFile + "]."));
+					offset = pos + 1;
+				} else if (bases > 0) {
+					if (name == null)
+						throw (new IOException("Fasta file [" + dataFile
+								+ "] does not start with a header."));
+					if (length == 0) {
+						lineBases = bases;
+						lineWidth = width;
+					} else if (shortLine || bases > lineBases)
+						throw (new IOException(
+								"Lines of different lengths in sequence "
+										+ name + " of Fasta file [" + dataFile
+										+ "]."));
+					if (bases < lineBases)
+						shortLine = true;
+					length += bases;
+				} else if (length > 0)
+					shortLine = true;
+				else if (name != null)
+					offset = pos + 1;
+
+				if (b == -1)
+					break;
+				++pos;
+				lineLength = 0;
+				first = -1;
+				cr = false;
+			}
+			if (name != null)
+				index.add(new Entry(name, length, offset, lineBases, lineWidth));
+		} finally {
+			in.close();
+		}
+		return index;
+	}
+}
@@ -1,8 +1,12 @@
 package edu.unc.csbio.util;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.channels.FileChannel;
 
 /**
  * The class to output a fq file
@@ -11,6 +15,10 @@ import java.io.IOException;
  * @version 0.1
  */
 public class FqWriter {
+	/**
+	 * the output file stream under <code>out</code>
+	 */
+	private FileOutputStream fos = null;
 	/**
 	 * an output BufferedWriter
 	 */
@@ -27,7 +35,33 @@ public class FqWriter {
 	 *             if an input or output exception occurred
 	 */
 	public FqWriter(String filename, int bufferSize) throws IOException {
-		out = new BufferedWriter(new FileWriter(filename), bufferSize);
+		fos = new FileOutputStream(filename);
+		out = new BufferedWriter(new OutputStreamWriter(fos), bufferSize);
+	}
+
+	/**
+	 * this method will append the whole content of a given file, e.g. a
+	 * spool file written by another <code>FqWriter</code>, after the strings
+	 * printed so far.
+	 * 
+	 * @param f
+	 *            the file to be appended
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public void append(File f) throws IOException {
+		out.flush();
+		FileInputStream fis = new FileInputStream(f);
+		try {
+			FileChannel src = fis.getChannel();
+			FileChannel dst = fos.getChannel();
+			long size = src.size();
+			long pos = 0;
+			while (pos < size)
+				pos += src.transferTo(pos, size - pos, dst);
+		} finally {
+			fis.close();
+		}
 	}
 
 	/**
@@ -0,0 +1,440 @@
+package edu.unc.csbio.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The class <code>PackedGenome</code> keeps the reference genome packed in 2
+ * bits per base, in the .2bit format of UCSC. The Fasta file is converted once
+ * into a cache file next to it, which is memory-mapped afterwards, so the
+ * packed bases stay off the Java heap and a human genome takes about 800 MB.
+ *
+ * The blocks of N and of soft-masked bases are kept in side tables. Other
+ * ambiguous bases, e.g. R or Y, are stored as N.
+ *
+ * The cache file is built into a temporary file next to it and then moved
+ * into place, so a run that is killed while packing, or two runs packing at
+ * the same time, never leave a partial cache behind. A cache file that is
+ * truncated or is not a .2bit file is built again.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class PackedGenome implements SequenceSource {
+	/**
+	 * the signature of .2bit files
+	 */
+	private static final int SIGNATURE = 0x1A412743;
+	/**
+	 * the number of bases converted at a time
+	 */
+	private static final int CHUNK = 1 << 20;
+
+	/**
+	 * The packed sequence and the side tables of a chromosome
+	 */
+	private static class Chromosome {
+		int length;
+		ByteBuffer dna;
+		int[] nStarts, nSizes, maskStarts, maskSizes;
+	}
+
+	/**
+	 * this maps a chromosome name to its packed sequence
+	 */
+	private final HashMap<String, Chromosome> chroms = new HashMap<String, Chromosome>();
+
+	/**
+	 * Open the packed genome of a Fasta file. The cache file is the Fasta
+	 * file name followed by ".2bit", and it is built when it does not exist
+	 * or is older than the Fasta file, or again when it is not a valid .2bit
+	 * file.
+	 *
+	 * @param fastaFile the name of the Fasta file
+	 * @return the packed genome
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public static PackedGenome open(String fastaFile) throws IOException {
+		File cache = new File(fastaFile + ".2bit");
+		if (!cache.exists()
+				|| cache.lastModified() < new File(fastaFile).lastModified()) {
+			System.out.println("Packed genome [" + cache
+					+ "] not found or out of date.");
+			System.out.println("Packing genome ... ");
+			build(new BigFaReader(fastaFile), cache.getPath());
+			return new PackedGenome(cache.getPath());
+		}
+		try {
+			return new PackedGenome(cache.getPath());
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			System.out.println("Packing genome ... ");
+			build(new BigFaReader(fastaFile), cache.getPath());
+			return new PackedGenome(cache.getPath());
+		}
+	}
+
+	/**
+	 * A constructor for <code>PackedGenome</code> object, which maps the
+	 * sequences of a .2bit file. The header, the index and the side tables
+	 * are checked against the size of the file before anything is mapped.
+	 *
+	 * @param twoBitFile the name of the .2bit file
+	 * @throws IOException
+	 *             if an input or output exception occurred, or the file is
+	 *             not a valid .2bit file
+	 */
+	public PackedGenome(String twoBitFile) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(twoBitFile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			long size = channel.size();
+			if (size < 16)
+				throw (new IOException("[" + twoBitFile
+						+ "] is not a .2bit file."));
+			ByteBuffer header = read(channel, 0, 16, ByteOrder.LITTLE_ENDIAN);
+			ByteOrder order = ByteOrder.LITTLE_ENDIAN;
+			if (header.getInt(0) != SIGNATURE) {
+				order = ByteOrder.BIG_ENDIAN;
+				header.order(order);
+				if (header.getInt(0) != SIGNATURE)
+					throw (new IOException("[" + twoBitFile
+							+ "] is not a .2bit file."));
+			}
+			if (header.getInt(4) != 0)
+				throw (new IOException("Unsupported version of .2bit file ["
+						+ twoBitFile + "]."));
+			int count = header.getInt(8);
+			if (count < 0 || 16 + 6L * count > size)
+				throw (new IOException("Corrupted .2bit file [" + twoBitFile
+						+ "]."));
+
+			long pos = 16;
+			for (int i = 0; i < count; ++i) {
+				checkSize(pos + 1, size, twoBitFile);
+				int nameSize = read(channel, pos, 1, order).get(0) & 0xff;
+				checkSize(pos + 1 + nameSize + 4, size, twoBitFile);
+				ByteBuffer entry = read(channel, pos + 1, nameSize + 4, order);
+				byte[] name = new byte[nameSize];
+				entry.get(name);
+				long offset = entry.getInt(nameSize) & 0xffffffffL;
+				chroms.put(new String(name, StandardCharsets.US_ASCII),
+						readChromosome(channel, offset, order, size, twoBitFile));
+				pos += 1 + nameSize + 4;
+			}
+		} finally {
+			/* The mapped buffers stay valid after the file is closed. */
+			raf.close();
+		}
+	}
+
+	/**
+	 * Read the side tables of a chromosome, and map its packed bases.
+	 */
+	private static Chromosome readChromosome(FileChannel channel, long pos,
+			ByteOrder order, long size, String twoBitFile) throws IOException {
+		Chromosome c = new Chromosome();
+		checkSize(pos + 8, size, twoBitFile);
+		ByteBuffer buf = read(channel, pos, 8, order);
+		c.length = buf.getInt(0);
+		int nCount = buf.getInt(4);
+		pos += 8;
+		checkSize(nCount < 0 ? -1 : pos + 8L * nCount + 4, size, twoBitFile);
+		c.nStarts = readInts(channel, pos, nCount, order);
+		pos += 4L * nCount;
+		c.nSizes = readInts(channel, pos, nCount, order);
+		pos += 4L * nCount;
+		int maskCount = read(channel, pos, 4, order).getInt(0);
+		pos += 4;
+		checkSize(maskCount < 0 ? -1 : pos + 8L * maskCount + 4, size,
+				twoBitFile);
+		c.maskStarts = readInts(channel, pos, maskCount, order);
+		pos += 4L * maskCount;
+		c.maskSizes = readInts(channel, pos, maskCount, order);
+		pos += 4L * maskCount + 4;
+		checkSize(c.length < 0 ? -1 : pos + (c.length + 3L) / 4, size,
+				twoBitFile);
+		c.dna = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+				(c.length + 3L) / 4);
+		return c;
+	}
+
+	/**
+	 * Check that a part of a .2bit file ends within the file.
+	 *
+	 * @param end the position after the part, or -1 if its size is negative
+	 * @param size the size of the file
+	 * @param twoBitFile the name of the file
+	 * @throws IOException
+	 *             if the part does not end within the file
+	 */
+	private static void checkSize(long end, long size, String twoBitFile)
+			throws IOException {
+		if (end < 0 || end > size)
+			throw (new IOException("Corrupted or truncated .2bit file ["
+					+ twoBitFile + "]."));
+	}
+
+	private static int[] readInts(FileChannel channel, long pos, int count,
+			ByteOrder order) throws IOException {
+		int[] ints = new int[count];
+		if (count > 0)
+			read(channel, pos, 4 * count, order).asIntBuffer().get(ints);
+		return ints;
+	}
+
+	private static ByteBuffer read(FileChannel channel, long pos, int size,
+			ByteOrder order) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(size).order(order);
+		while (buf.hasRemaining()) {
+			if (channel.read(buf, pos + buf.position()) < 0)
+				throw (new IOException("Unexpected end of .2bit file."));
+		}
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Get a view of the bases given start and end position in one
+	 * chromosome. The positions are 1-based and inclusive, and the range is
+	 * cut at the end of the chromosome, as <code>BigFaReader.getData</code>
+	 * does.
+	 *
+	 * @param chr chromosome ID
+	 * @param start start position
+	 * @param end end position
+	 * @return the bases within start and end position, decoded when they are
+	 *         read
+	 */
+	@Override
+	public CharSequence get(String chr, int start, int end) {
+		if (end < start)
+			throw (new RuntimeException(
+					"End position smaller than start position."));
+		Chromosome c = chroms.get(chr);
+		if (c == null)
+			c = chroms.get("chr" + chr);
+		if (c == null)
+			throw (new RuntimeException("Chromosome " + chr
+					+ " not found in packed genome."));
+
+		int first = start > 0 ? start - 1 : 0;
+		int last = (int) Math.min((long) first + end - start, c.length - 1);
+		return new PackedSequence(c.dna, c.nStarts, c.nSizes, c.maskStarts,
+				c.maskSizes, first, Math.max(last - first + 1, 0));
+	}
+
+	/**
+	 * Convert the sequences of a Fasta file into a .2bit file. Each chromosome is read
+	 * twice: once for its blocks of N and soft-masked bases, which precede
+	 * the packed bases in the file, and once for packing.
+	 *
+	 * The file is written into a temporary file in the same directory, which
+	 * replaces the .2bit file by an atomic move only once it is complete.
+	 *
+	 * @param fasta the reader of the Fasta file
+	 * @param twoBitFile the name of the .2bit file
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public static void build(BigFaReader fasta, String twoBitFile)
+			throws IOException {
+		ArrayList<FastaIndex.Entry> entries = fasta.getIndex().getEntries();
+		File target = new File(twoBitFile).getAbsoluteFile();
+		File tmp = File.createTempFile(target.getName() + ".", ".tmp",
+				target.getParentFile());
+		boolean done = false;
+		try {
+			write(fasta, entries, tmp);
+			Files.move(tmp.toPath(), target.toPath(),
+					StandardCopyOption.ATOMIC_MOVE);
+			done = true;
+		} finally {
+			if (!done)
+				tmp.delete();
+		}
+	}
+
+	/**
+	 * Write the .2bit file of the sequences of a Fasta file, and force it to
+	 * the storage device.
+	 */
+	private static void write(BigFaReader fasta,
+			ArrayList<FastaIndex.Entry> entries, File twoBitFile)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(twoBitFile, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+
+			int indexSize = 0;
+			for (FastaIndex.Entry e : entries) {
+				if (e.name.length() > 255)
+					throw (new IOException("Name of chromosome " + e.name
+							+ " is too long."));
+				indexSize += 1 + e.name.length() + 4;
+			}
+			ByteBuffer header = ByteBuffer.allocate(16 + indexSize).order(
+					ByteOrder.LITTLE_ENDIAN);
+			header.putInt(SIGNATURE).putInt(0).putInt(entries.size())
+					.putInt(0);
+
+			long pos = header.capacity();
+			for (FastaIndex.Entry e : entries) {
+				if (pos > 0xffffffffL)
+					throw (new IOException("Genome is too large for .2bit file."));
+				header.put((byte) e.name.length());
+				header.put(e.name.getBytes(StandardCharsets.US_ASCII));
+				header.putInt((int) pos);
+				pos = writeChromosome(channel, pos, fasta, e);
+			}
+			header.flip();
+			write(channel, 0, header);
+			channel.force(true);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Write the side tables and the packed bases of a chromosome.
+	 *
+	 * @return the position after the chromosome
+	 */
+	private static long writeChromosome(FileChannel channel, long pos,
+			BigFaReader fasta, FastaIndex.Entry e) throws IOException {
+		if (e.length > Integer.MAX_VALUE)
+			throw (new IOException("Chromosome " + e.name + " is too long."));
+		int length = (int) e.length;
+
+		/* Collect the blocks of N and soft-masked bases */
+		IntList nStarts = new IntList(), nSizes = new IntList();
+		IntList maskStarts = new IntList(), maskSizes = new IntList();
+		int nStart = -1, maskStart = -1;
+		for (int s = 0; s < length; s += CHUNK) {
+			String seq = fasta.getData(e.name, s + 1,
+					Math.min(s + CHUNK, length));
+			for (int i = 0; i < seq.length(); ++i) {
+				int p = s + i;
+				char c = seq.charAt(i);
+				boolean isN = code(c) < 0;
+				if (isN && nStart < 0)
+					nStart = p;
+				else if (!isN && nStart >= 0) {
+					nStarts.add(nStart);
+					nSizes.add(p - nStart);
+					nStart = -1;
+				}
+				boolean isMasked = Character.isLowerCase(c);
+				if (isMasked && maskStart < 0)
+					maskStart = p;
+				else if (!isMasked && maskStart >= 0) {
+					maskStarts.add(maskStart);
+					maskSizes.add(p - maskStart);
+					maskStart = -1;
+				}
+			}
+		}
+		if (nStart >= 0) {
+			nStarts.add(nStart);
+			nSizes.add(length - nStart);
+		}
+		if (maskStart >= 0) {
+			maskStarts.add(maskStart);
+			maskSizes.add(length - maskStart);
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(
+				4 * (4 + 2 * nStarts.size + 2 * maskStarts.size)).order(
+				ByteOrder.LITTLE_ENDIAN);
+		header.putInt(length).putInt(nStarts.size);
+		nStarts.putTo(header);
+		nSizes.putTo(header);
+		header.putInt(maskStarts.size);
+		maskStarts.putTo(header);
+		maskSizes.putTo(header);
+		header.putInt(0);
+		header.flip();
+		pos = write(channel, pos, header);
+
+		/* Pack the bases; N is stored as T */
+		ByteBuffer packed = ByteBuffer.allocate(CHUNK / 4);
+		for (int s = 0; s < length; s += CHUNK) {
+			String seq = fasta.getData(e.name, s + 1,
+					Math.min(s + CHUNK, length));
+			packed.clear();
+			for (int i = 0; i < seq.length(); i += 4) {
+				int b = 0;
+				for (int j = 0; j < 4; ++j) {
+					int code = i + j < seq.length() ? code(seq.charAt(i + j))
+							: 0;
+					b = (b << 2) | (code < 0 ? 0 : code);
+				}
+				packed.put((byte) b);
+			}
+			packed.flip();
+			pos = write(channel, pos, packed);
+		}
+		return pos;
+	}
+
+	/**
+	 * Get the 2-bit code of a base.
+	 *
+	 * @return the code, or -1 if the base is ambiguous
+	 */
+	private static int code(char c) {
+		switch (c) {
+		case 'T':
+		case 't':
+			return 0;
+		case 'C':
+		case 'c':
+			return 1;
+		case 'A':
+		case 'a':
+			return 2;
+		case 'G':
+		case 'g':
+			return 3;
+		default:
+			return -1;
+		}
+	}
+
+	private static long write(FileChannel channel, long pos, ByteBuffer buf)
+			throws IOException {
+		while (buf.hasRemaining())
+			pos += channel.write(buf, pos);
+		return pos;
+	}
+
+	/**
+	 * A growable array of ints
+	 */
+	private static class IntList {
+		int[] data = new int[16];
+		int size = 0;
+
+		void add(int v) {
+			if (size == data.length)
+				data = Arrays.copyOf(data, size * 2);
+			data[size++] = v;
+		}
+
+		void putTo(ByteBuffer buf) {
+			for (int i = 0; i < size; ++i)
+				buf.putInt(data[i]);
+		}
+	}
+}
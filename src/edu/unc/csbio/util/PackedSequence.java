@@ -0,0 +1,146 @@
+package edu.unc.csbio.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The class <code>PackedSequence</code> is a view of a range of a 2-bit
+ * packed sequence. Bases are only decoded when they are asked for, so a view
+ * of a whole window costs no more memory than its position.
+ *
+ * The sequence shares the blocks of N and the blocks of soft-masked, i.e.
+ * lower case, bases of its chromosome, which are applied on top of the packed
+ * bases when decoding.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class PackedSequence extends SequenceView {
+	/**
+	 * the bases encoded by the 2-bit codes, in the order of .2bit files
+	 */
+	private static final char[] BASES = { 'T', 'C', 'A', 'G' };
+	/**
+	 * the packed bases of the chromosome, four per byte
+	 */
+	private final ByteBuffer dna;
+	/**
+	 * the 0-based starts and the sizes of the blocks of N, sorted by starts
+	 */
+	private final int[] nStarts, nSizes;
+	/**
+	 * the 0-based starts and the sizes of the soft-masked blocks, sorted by
+	 * starts
+	 */
+	private final int[] maskStarts, maskSizes;
+	/**
+	 * the 0-based position of the view in the chromosome
+	 */
+	private final int from;
+	/**
+	 * the length of the view
+	 */
+	private final int length;
+
+	/**
+	 * A constructor for <code>PackedSequence</code> object
+	 *
+	 * @param _dna the packed bases of the chromosome
+	 * @param _nStarts the starts of the blocks of N
+	 * @param _nSizes the sizes of the blocks of N
+	 * @param _maskStarts the starts of the soft-masked blocks
+	 * @param _maskSizes the sizes of the soft-masked blocks
+	 * @param _from the 0-based position of the view in the chromosome
+	 * @param _length the length of the view
+	 */
+	public PackedSequence(ByteBuffer _dna, int[] _nStarts, int[] _nSizes,
+			int[] _maskStarts, int[] _maskSizes, int _from, int _length) {
+		dna = _dna;
+		nStarts = _nStarts;
+		nSizes = _nSizes;
+		maskStarts = _maskStarts;
+		maskSizes = _maskSizes;
+		from = _from;
+		length = _length;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw (new IndexOutOfBoundsException("Position " + index
+					+ " out of range."));
+		int p = from + index;
+		char c = BASES[(dna.get(p >>> 2) >>> (6 - ((p & 3) << 1))) & 3];
+		if (covers(nStarts, nSizes, p))
+			c = 'N';
+		if (covers(maskStarts, maskSizes, p))
+			c = Character.toLowerCase(c);
+		return c;
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end)
+			throw (new IndexOutOfBoundsException("Range [" + start + ", "
+					+ end + ") out of range."));
+		return new PackedSequence(dna, nStarts, nSizes, maskStarts, maskSizes,
+				from + start, end - start);
+	}
+
+	/**
+	 * Decode bases of the view.
+	 */
+	@Override
+	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+		if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd)
+			throw (new IndexOutOfBoundsException("Range [" + srcBegin + ", "
+					+ srcEnd + ") out of range."));
+		int begin = from + srcBegin, end = from + srcEnd;
+		int b = 0;
+		for (int p = begin, i = dstBegin; p < end; ++p, ++i) {
+			if (p == begin || (p & 3) == 0)
+				b = dna.get(p >>> 2);
+			dst[i] = BASES[(b >>> (6 - ((p & 3) << 1))) & 3];
+		}
+
+		for (int k = firstBlock(nStarts, nSizes, begin); k < nStarts.length
+				&& nStarts[k] < end; ++k) {
+			int s = Math.max(nStarts[k], begin) - begin + dstBegin;
+			int e = Math.min(nStarts[k] + nSizes[k], end) - begin + dstBegin;
+			Arrays.fill(dst, s, e, 'N');
+		}
+		for (int k = firstBlock(maskStarts, maskSizes, begin); k < maskStarts.length
+				&& maskStarts[k] < end; ++k) {
+			int s = Math.max(maskStarts[k], begin) - begin + dstBegin;
+			int e = Math.min(maskStarts[k] + maskSizes[k], end) - begin
+					+ dstBegin;
+			for (int i = s; i < e; ++i)
+				dst[i] = Character.toLowerCase(dst[i]);
+		}
+	}
+
+	/**
+	 * Find the first block ending after a position.
+	 */
+	private static int firstBlock(int[] starts, int[] sizes, int p) {
+		int k = Arrays.binarySearch(starts, p);
+		if (k < 0)
+			k = -k - 2;
+		if (k < 0)
+			return 0;
+		return starts[k] + sizes[k] > p ? k : k + 1;
+	}
+
+	/**
+	 * Check whether a position is in one of the blocks.
+	 */
+	private static boolean covers(int[] starts, int[] sizes, int p) {
+		int k = firstBlock(starts, sizes, p);
+		return k < starts.length && starts[k] <= p;
+	}
+}
@@ -0,0 +1,200 @@
+package edu.unc.csbio.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The class <code>Pipeline</code> connects a list of
+ * <code>PipelineStage</code> objects by bounded queues. Items submitted to
+ * the pipeline go through the stages in order, each stage running on its own
+ * worker threads. If any stage fails, all worker threads are stopped and the
+ * failure is thrown to the submitting thread.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ * @param <I> the type of items submitted to the pipeline
+ */
+public class Pipeline<I> {
+	/**
+	 * the stages of the pipeline, in order
+	 */
+	private final ArrayList<PipelineStage<?, ?>> stages = new ArrayList<PipelineStage<?, ?>>();
+	/**
+	 * the worker threads of all stages
+	 */
+	private final ArrayList<Thread> workers = new ArrayList<Thread>();
+	/**
+	 * the first failure of a stage
+	 */
+	private volatile Throwable failure = null;
+	/**
+	 * the time when the pipeline started
+	 */
+	private long startNanos = 0;
+
+	/**
+	 * A constructor for <code>Pipeline</code> object
+	 *
+	 * @param first the first stage of the pipeline
+	 */
+	public Pipeline(PipelineStage<I, ?> first) {
+		first.pipeline = this;
+		stages.add(first);
+	}
+
+	/**
+	 * Append a stage after the last stage of the pipeline.
+	 *
+	 * @param stage the stage to be appended
+	 * @return the pipeline
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Pipeline<I> then(PipelineStage<?, ?> stage) {
+		PipelineStage last = stages.get(stages.size() - 1);
+		last.next = stage;
+		stage.pipeline = this;
+		stages.add(stage);
+		return this;
+	}
+
+	/**
+	 * Start the worker threads of all stages.
+	 */
+	public void start() {
+		startNanos = System.nanoTime();
+		for (PipelineStage<?, ?> stage : stages)
+			stage.start();
+	}
+
+	/**
+	 * Submit an item to the first stage. It blocks while the queue of the
+	 * first stage is full.
+	 *
+	 * @param item the item
+	 * @throws IOException
+	 *             if a stage has failed
+	 */
+	public void submit(I item) throws IOException {
+		put(item);
+	}
+
+	/**
+	 * Acquire a permit of a semaphore bounding the items in flight, which is
+	 * released by a later stage. It blocks while there is no permit, checking
+	 * for failures while waiting.
+	 *
+	 * @param permits the semaphore
+	 * @throws IOException
+	 *             if a stage has failed
+	 */
+	public void acquire(Semaphore permits) throws IOException {
+		try {
+			while (!permits.tryAcquire(100, TimeUnit.MILLISECONDS))
+				check();
+		} catch (InterruptedException e) {
+			stop();
+			throw (new IOException(e));
+		}
+		check();
+	}
+
+	/**
+	 * Tell the pipeline that there is no more item, and wait until all
+	 * stages are finished.
+	 *
+	 * @throws IOException
+	 *             if a stage has failed
+	 */
+	public void close() throws IOException {
+		PipelineStage<?, ?> first = stages.get(0);
+		for (int i = 0; i < first.getThreads(); ++i)
+			put(PipelineStage.END);
+		try {
+			for (Thread worker : workers) {
+				while (worker.isAlive()) {
+					worker.join(100);
+					check();
+				}
+			}
+		} catch (InterruptedException e) {
+			stop();
+			throw (new IOException(e));
+		}
+		check();
+	}
+
+	/**
+	 * Stop all worker threads.
+	 */
+	public synchronized void stop() {
+		for (Thread worker : workers)
+			worker.interrupt();
+	}
+
+	/**
+	 * Put an item into the queue of the first stage, checking for failures
+	 * while waiting.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void put(Object item) throws IOException {
+		PipelineStage first = stages.get(0);
+		try {
+			while (!first.offer(item, 100, TimeUnit.MILLISECONDS))
+				check();
+		} catch (InterruptedException e) {
+			stop();
+			throw (new IOException(e));
+		}
+		check();
+	}
+
+	/**
+	 * Throw the failure of a stage, if any.
+	 */
+	private void check() throws IOException {
+		Throwable e = failure;
+		if (e == null)
+			return;
+		if (e instanceof IOException)
+			throw ((IOException) e);
+		if (e instanceof RuntimeException)
+			throw ((RuntimeException) e);
+		if (e instanceof Error)
+			throw ((Error) e);
+		throw (new IOException(e));
+	}
+
+	/**
+	 * Register a worker thread of a stage.
+	 */
+	synchronized void register(Thread worker) {
+		workers.add(worker);
+	}
+
+	/**
+	 * Record the failure of a stage, and stop all worker threads.
+	 */
+	synchronized void fail(Throwable e) {
+		if (failure == null) {
+			failure = e;
+			stop();
+		}
+	}
+
+	/**
+	 * A method to get the statistics of all stages
+	 *
+	 * @return a string containing one line of statistics for each stage
+	 */
+	public String report() {
+		long elapsed = System.nanoTime() - startNanos;
+		StringBuilder sb = new StringBuilder();
+		for (PipelineStage<?, ?> stage : stages) {
+			sb.append(stage.report(elapsed));
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,292 @@
+package edu.unc.csbio.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The abstract class for a stage of a <code>Pipeline</code>. A stage takes
+ * items from its bounded input queue with a number of worker threads, and
+ * emits its results to the input queue of the next stage. A stage blocks if
+ * the queue of the next stage is full, so a slow stage holds back the stages
+ * before it.
+ *
+ * The stage keeps its statistics: the number of items processed, the time
+ * spent on processing (busy) and on waiting for the next stage (blocked), and
+ * the depth of its input queue.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ * @param <I> the type of input items
+ * @param <O> the type of output items
+ */
+public abstract class PipelineStage<I, O> {
+	/**
+	 * the marker telling a worker thread that there is no more input
+	 */
+	static final Object END = new Object();
+
+	/**
+	 * the name of the stage
+	 */
+	private final String name;
+	/**
+	 * the number of worker threads
+	 */
+	private final int threads;
+	/**
+	 * the input queue
+	 */
+	private final BlockingQueue<Object> queue;
+	/**
+	 * the next stage, or null if it is the last stage
+	 */
+	PipelineStage<O, ?> next = null;
+	/**
+	 * the pipeline the stage belongs to
+	 */
+	Pipeline<?> pipeline = null;
+	/**
+	 * the number of worker threads still running
+	 */
+	private final AtomicInteger running = new AtomicInteger();
+	/**
+	 * the statistics of the stage
+	 */
+	private final AtomicLong items = new AtomicLong(),
+			busyNanos = new AtomicLong(), blockedNanos = new AtomicLong(),
+			depthSum = new AtomicLong();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+	/**
+	 * the time the calling worker thread is blocked in processing the
+	 * current item
+	 */
+	private final ThreadLocal<long[]> itemBlockedNanos = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[1];
+		}
+	};
+
+	/**
+	 * A constructor for <code>PipelineStage</code> object
+	 *
+	 * @param _name the name of the stage
+	 * @param _threads the number of worker threads
+	 * @param _capacity the capacity of the input queue
+	 */
+	public PipelineStage(String _name, int _threads, int _capacity) {
+		if (_threads < 1)
+			throw (new RuntimeException("A stage needs at least one thread."));
+		name = _name;
+		threads = _threads;
+		queue = new ArrayBlockingQueue<Object>(_capacity);
+	}
+
+	/**
+	 * Process an input item, and emit the results by <code>emit</code>. It is
+	 * called by all worker threads concurrently.
+	 *
+	 * @param item the input item
+	 * @throws Exception if the item cannot be processed, which stops the
+	 *             pipeline
+	 */
+	protected abstract void process(I item) throws Exception;
+
+	/**
+	 * Called once by the last running worker thread after all input items
+	 * are processed. The default implementation does nothing.
+	 *
+	 * @throws Exception if the stage cannot be finished, which stops the
+	 *             pipeline
+	 */
+	protected void finish() throws Exception {
+	}
+
+	/**
+	 * Emit an item to the next stage. It blocks while the queue of the next
+	 * stage is full.
+	 *
+	 * @param item the output item
+	 * @throws InterruptedException if the pipeline is stopped
+	 */
+	protected final void emit(O item) throws InterruptedException {
+		if (next == null)
+			return;
+		long t = System.nanoTime();
+		next.put(item);
+		t = System.nanoTime() - t;
+		blockedNanos.addAndGet(t);
+		itemBlockedNanos.get()[0] += t;
+	}
+
+	/**
+	 * Put an item or an end marker into the input queue.
+	 */
+	void put(Object item) throws InterruptedException {
+		queue.put(item);
+	}
+
+	/**
+	 * Put an item or an end marker into the input queue, waiting at most the
+	 * given time for space.
+	 */
+	boolean offer(Object item, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return queue.offer(item, timeout, unit);
+	}
+
+	/**
+	 * Start the worker threads.
+	 */
+	void start() {
+		running.set(threads);
+		for (int i = 0; i < threads; ++i) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					work();
+				}
+			}, name + "-" + (i + 1));
+			worker.setDaemon(true);
+			pipeline.register(worker);
+			worker.start();
+		}
+	}
+
+	/**
+	 * The loop of a worker thread. The last worker thread leaving the loop
+	 * finishes the stage, and sends one end marker to each worker thread of
+	 * the next stage.
+	 */
+	@SuppressWarnings("unchecked")
+	private void work() {
+		long[] blocked = itemBlockedNanos.get();
+		try {
+			while (true) {
+				Object item = queue.take();
+				if (item == END)
+					break;
+
+				int depth = queue.size();
+				depthSum.addAndGet(depth);
+				int max = maxDepth.get();
+				while (depth > max && !maxDepth.compareAndSet(max, depth))
+					max = maxDepth.get();
+
+				/* Time blocked by the next stage is not busy time. */
+				blocked[0] = 0;
+				long t = System.nanoTime();
+				process((I) item);
+				busyNanos.addAndGet(System.nanoTime() - t - blocked[0]);
+				items.incrementAndGet();
+			}
+			if (running.decrementAndGet() == 0) {
+				finish();
+				if (next != null)
+					for (int i = 0; i < next.threads; ++i)
+						next.put(END);
+			}
+		} catch (InterruptedException e) {
+			// The pipeline has been stopped.
+		} catch (Throwable e) {
+			pipeline.fail(e);
+		}
+	}
+
+	/**
+	 * Get the name of the stage
+	 *
+	 * @return the name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the number of worker threads
+	 *
+	 * @return the number of threads
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Get the number of items waiting in the input queue
+	 *
+	 * @return the current queue depth
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * Get the maximum number of items seen waiting in the input queue
+	 *
+	 * @return the maximum queue depth
+	 */
+	public int getMaxQueueDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * Get the average number of items seen waiting in the input queue, when
+	 * an item is taken
+	 *
+	 * @return the average queue depth
+	 */
+	public double getAverageQueueDepth() {
+		long n = items.get();
+		return n > 0 ? depthSum.get() * 1.0 / n : 0;
+	}
+
+	/**
+	 * Get the number of items processed
+	 *
+	 * @return the number of items
+	 */
+	public long getItems() {
+		return items.get();
+	}
+
+	/**
+	 * Get the total time of all worker threads spent on processing items,
+	 * excluding the time blocked by the next stage
+	 *
+	 * @return the busy time in nanoseconds
+	 */
+	public long getBusyNanos() {
+		return busyNanos.get();
+	}
+
+	/**
+	 * Get the total time of all worker threads blocked by a full queue of the
+	 * next stage
+	 *
+	 * @return the blocked time in nanoseconds
+	 */
+	public long getBlockedNanos() {
+		return blockedNanos.get();
+	}
+
+	/**
+	 * A method to get the statistics of the stage
+	 *
+	 * @param elapsedNanos the time since the pipeline started
+	 * @return a string containing the name, threads, items, busy and blocked
+	 *         time, utilization and queue depths of the stage
+	 */
+	public String report(long elapsedNanos) {
+		double utilization = elapsedNanos > 0 ? getBusyNanos() * 100.0
+				/ elapsedNanos / threads : 0;
+		return String.format(
+				"%-10s threads=%d items=%d busy=%.1fs blocked=%.1fs "
+						+ "utilization=%.0f%% queue=%d avg=%.1f max=%d", name,
+				threads, getItems(), getBusyNanos() / 1e9,
+				getBlockedNanos() / 1e9, utilization, getQueueDepth(),
+				getAverageQueueDepth(), getMaxQueueDepth());
+	}
+}
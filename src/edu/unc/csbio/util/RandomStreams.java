@@ -0,0 +1,83 @@
+package edu.unc.csbio.util;
+
+import java.util.SplittableRandom;
+
+/**
+ * The class <code>RandomStreams</code> hands out independent streams of
+ * random numbers derived from one seed. A stream is identified by a list of
+ * keys, e.g. a transcript id and a chunk number, and its seed only depends on
+ * the root seed and the keys. Therefore a stream gives the same numbers no
+ * matter which thread asks for it or when, and different keys give
+ * statistically independent streams.
+ *
+ * The streams are <code>SplittableRandom</code> objects, which are not
+ * synchronized; each stream should be used by one thread at a time.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public final class RandomStreams {
+	/**
+	 * the root seed
+	 */
+	private final long seed;
+
+	/**
+	 * A constructor for <code>RandomStreams</code> object
+	 *
+	 * @param _seed the root seed
+	 */
+	public RandomStreams(long _seed) {
+		seed = _seed;
+	}
+
+	/**
+	 * Get the root seed
+	 *
+	 * @return the root seed
+	 */
+	public long getSeed() {
+		return seed;
+	}
+
+	/**
+	 * Get a new stream identified by the given keys.
+	 *
+	 * @param keys the keys of the stream
+	 * @return a stream starting from the beginning
+	 */
+	public SplittableRandom get(String... keys) {
+		return new SplittableRandom(seedOf(keys));
+	}
+
+	/**
+	 * Compute the seed of the stream identified by the given keys. Each key
+	 * is hashed by 64-bit FNV-1a, and mixed into the seed by the finalizer of
+	 * SplitMix64.
+	 *
+	 * @param keys the keys of the stream
+	 * @return the seed of the stream
+	 */
+	public long seedOf(String... keys) {
+		long h = mix(seed);
+		for (String key : keys) {
+			long k = 0xcbf29ce484222325L;
+			for (int i = 0; i < key.length(); ++i) {
+				k ^= key.charAt(i);
+				k *= 0x100000001b3L;
+			}
+			h = mix(h ^ mix(k + key.length()));
+		}
+		return h;
+	}
+
+	/**
+	 * The finalizer of SplitMix64
+	 */
+	private static long mix(long z) {
+		z += 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,28 @@
+package edu.unc.csbio.util;
+
+import java.io.IOException;
+
+/**
+ * The interface <code>SequenceSource</code> gives the bases of ranges of the
+ * reference genome, e.g. read from a Fasta file or decoded from a packed
+ * genome. A source can be used by many threads at the same time.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public interface SequenceSource {
+	/**
+	 * Get the bases given start and end position in one chromosome. The
+	 * positions are 1-based and inclusive, and the range is cut at the end
+	 * of the chromosome.
+	 *
+	 * @param chr chromosome ID
+	 * @param start start position
+	 * @param end end position
+	 * @return the bases within start and end position
+	 * @throws IOException
+	 *             if an input or output exception occurred
+	 */
+	public CharSequence get(String chr, int start, int end)
+			throws IOException;
+}
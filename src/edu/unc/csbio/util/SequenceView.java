@@ -0,0 +1,72 @@
+package edu.unc.csbio.util;
+
+/**
+ * The abstract class <code>SequenceView</code> is a sequence of bases that
+ * does not own a copy of them, but reads them from somewhere else, e.g. a
+ * range of a string, or the exons of a transcript stitched together. A
+ * subsequence of a view is a view too, so the bases are copied only once,
+ * when they are copied out by <code>getChars</code>.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public abstract class SequenceView implements CharSequence {
+	/**
+	 * Copy bases of the view into an array.
+	 *
+	 * @param srcBegin the index of the first base
+	 * @param srcEnd the index after the last base
+	 * @param dst the destination array
+	 * @param dstBegin the offset in the destination array
+	 */
+	public abstract void getChars(int srcBegin, int srcEnd, char[] dst,
+			int dstBegin);
+
+	/**
+	 * Copy out all bases of the view.
+	 *
+	 * @return the bases
+	 */
+	@Override
+	public String toString() {
+		char[] bases = new char[length()];
+		getChars(0, bases.length, bases, 0);
+		return new String(bases);
+	}
+
+	/**
+	 * Get a view of a sequence. A string is wrapped, so its subsequences do
+	 * not copy the bases.
+	 *
+	 * @param s the sequence
+	 * @return a view of the sequence
+	 */
+	public static CharSequence of(CharSequence s) {
+		if (s instanceof String)
+			return new StringSlice((String) s, 0, s.length());
+		return s;
+	}
+
+	/**
+	 * Copy bases of any sequence into an array.
+	 *
+	 * @param s the sequence
+	 * @param srcBegin the index of the first base
+	 * @param srcEnd the index after the last base
+	 * @param dst the destination array
+	 * @param dstBegin the offset in the destination array
+	 */
+	public static void copy(CharSequence s, int srcBegin, int srcEnd,
+			char[] dst, int dstBegin) {
+		if (s instanceof SequenceView)
+			((SequenceView) s).getChars(srcBegin, srcEnd, dst, dstBegin);
+		else if (s instanceof String)
+			((String) s).getChars(srcBegin, srcEnd, dst, dstBegin);
+		else if (s instanceof StringBuilder)
+			((StringBuilder) s).getChars(srcBegin, srcEnd, dst, dstBegin);
+		else {
+			for (int i = srcBegin; i < srcEnd; ++i)
+				dst[dstBegin++] = s.charAt(i);
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package edu.unc.csbio.util;
+
+import java.util.Arrays;
+
+/**
+ * The class <code>SparseSequence</code> is a sequence of which only some
+ * disjoint intervals are known, e.g. the exons of the expressed transcripts
+ * in a window. A subsequence is served from the interval covering it, and
+ * asking for bases outside the intervals is an error.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class SparseSequence extends SequenceView {
+	/**
+	 * the length of the whole sequence
+	 */
+	private final int length;
+	/**
+	 * the 0-based starts of the intervals, in increasing order
+	 */
+	private final int[] starts;
+	/**
+	 * the bases of the intervals
+	 */
+	private final CharSequence[] parts;
+
+	/**
+	 * A constructor for <code>SparseSequence</code> object
+	 *
+	 * @param _length the length of the whole sequence
+	 * @param _starts the 0-based starts of the intervals, in increasing order
+	 * @param _parts the bases of the intervals, which must not overlap
+	 */
+	public SparseSequence(int _length, int[] _starts, CharSequence[] _parts) {
+		length = _length;
+		starts = _starts;
+		parts = new CharSequence[_parts.length];
+		for (int k = 0; k < parts.length; ++k)
+			parts[k] = SequenceView.of(_parts[k]);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Find the interval covering a range.
+	 *
+	 * @return the index of the interval
+	 */
+	private int find(int start, int end) {
+		int k = Arrays.binarySearch(starts, start);
+		if (k < 0)
+			k = -k - 2;
+		if (k < 0 || end > starts[k] + parts[k].length())
+			throw (new RuntimeException("Required sequence out of range"));
+		return k;
+	}
+
+	@Override
+	public char charAt(int index) {
+		int k = find(index, index + 1);
+		return parts[k].charAt(index - starts[k]);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start == end)
+			return "";
+		int k = find(start, end);
+		return parts[k].subSequence(start - starts[k], end - starts[k]);
+	}
+
+	/**
+	 * Copy bases of the view, which must be covered by one interval.
+	 */
+	@Override
+	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+		if (srcBegin == srcEnd)
+			return;
+		int k = find(srcBegin, srcEnd);
+		SequenceView.copy(parts[k], srcBegin - starts[k], srcEnd - starts[k],
+				dst, dstBegin);
+	}
+}
@@ -0,0 +1,100 @@
+package edu.unc.csbio.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The class <code>SplicedSequence</code> is a view stitching sequences
+ * together, e.g. the exons of a transcript, without copying their bases.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class SplicedSequence extends SequenceView {
+	/**
+	 * the sequences stitched
+	 */
+	private final CharSequence[] parts;
+	/**
+	 * the index of the first base of each part, followed by the length
+	 */
+	private final int[] offsets;
+
+	/**
+	 * A constructor for <code>SplicedSequence</code> object
+	 *
+	 * @param _parts the sequences stitched, in order
+	 */
+	public SplicedSequence(List<? extends CharSequence> _parts) {
+		this(_parts.toArray(new CharSequence[_parts.size()]));
+	}
+
+	private SplicedSequence(CharSequence[] _parts) {
+		parts = _parts;
+		offsets = new int[parts.length + 1];
+		for (int k = 0; k < parts.length; ++k)
+			offsets[k + 1] = offsets[k] + parts[k].length();
+	}
+
+	@Override
+	public int length() {
+		return offsets[parts.length];
+	}
+
+	/**
+	 * Find the part containing a base.
+	 */
+	private int find(int index) {
+		int k = Arrays.binarySearch(offsets, 0, parts.length, index);
+		if (k < 0)
+			return -k - 2;
+		/* Skip the empty parts */
+		while (offsets[k + 1] == index)
+			++k;
+		return k;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length())
+			throw (new IndexOutOfBoundsException("Position " + index
+					+ " out of range."));
+		int k = find(index);
+		return parts[k].charAt(index - offsets[k]);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length() || start > end)
+			throw (new IndexOutOfBoundsException("Range [" + start + ", "
+					+ end + ") out of range."));
+		if (start == end)
+			return "";
+		int first = find(start);
+		int last = find(end - 1);
+		if (first == last)
+			return parts[first].subSequence(start - offsets[first], end
+					- offsets[first]);
+
+		CharSequence[] sub = Arrays.copyOfRange(parts, first, last + 1);
+		sub[0] = parts[first].subSequence(start - offsets[first],
+				parts[first].length());
+		sub[sub.length - 1] = parts[last].subSequence(0, end - offsets[last]);
+		return new SplicedSequence(sub);
+	}
+
+	@Override
+	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+		if (srcBegin < 0 || srcEnd > length() || srcBegin > srcEnd)
+			throw (new IndexOutOfBoundsException("Range [" + srcBegin + ", "
+					+ srcEnd + ") out of range."));
+		if (srcBegin == srcEnd)
+			return;
+		for (int k = find(srcBegin); k < parts.length && offsets[k] < srcEnd; ++k) {
+			int s = Math.max(srcBegin, offsets[k]);
+			int e = Math.min(srcEnd, offsets[k + 1]);
+			SequenceView.copy(parts[k], s - offsets[k], e - offsets[k], dst,
+					dstBegin + s - srcBegin);
+		}
+	}
+}
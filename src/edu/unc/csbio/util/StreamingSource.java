@@ -0,0 +1,102 @@
+package edu.unc.csbio.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * The class <code>StreamingSource</code> reads each chromosome of another
+ * source once, front to back, for callers asking for ranges in the order of
+ * their start positions, e.g. genes sorted by location. Each chromosome has a
+ * sliding buffer, which is extended forward when a range ends after it, and
+ * from which the bases before the start of the last range are dropped. So
+ * the bases of overlapping genes are read only once, the reads of the other
+ * source are sequential, and the buffer is only as long as the longest gene
+ * with its overlapping neighbours.
+ *
+ * A range starting before the buffer, which only happens when the ranges of
+ * a chromosome are asked for out of order, is read from the other source
+ * directly.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class StreamingSource implements SequenceSource {
+	/**
+	 * the number of bases read ahead of the end of a range
+	 */
+	private static final int READ_AHEAD = 1 << 16;
+	/**
+	 * the source the chromosomes are read from
+	 */
+	private final SequenceSource source;
+	/**
+	 * this maps a chromosome name to its sliding buffer
+	 */
+	private final HashMap<String, Buffer> buffers = new HashMap<String, Buffer>();
+
+	/**
+	 * The sliding buffer of a chromosome
+	 */
+	private static class Buffer {
+		/**
+		 * the bases in the buffer
+		 */
+		final StringBuilder bases = new StringBuilder();
+		/**
+		 * the position of the first base in the buffer
+		 */
+		int start = 1;
+	}
+
+	/**
+	 * A constructor for <code>StreamingSource</code> object
+	 *
+	 * @param _source the source the chromosomes are read from
+	 */
+	public StreamingSource(SequenceSource _source) {
+		source = _source;
+	}
+
+	@Override
+	public CharSequence get(String chr, int start, int end)
+			throws IOException {
+		if (end < start)
+			throw (new RuntimeException(
+					"End position smaller than start position."));
+		if (start < 1)
+			start = 1;
+
+		Buffer b = null;
+		synchronized (buffers) {
+			b = buffers.get(chr);
+			if (b == null) {
+				b = new Buffer();
+				buffers.put(chr, b);
+			}
+		}
+
+		synchronized (b) {
+			if (start < b.start)
+				return source.get(chr, start, end);
+
+			/* Drop the bases before the range */
+			int bufEnd = b.start + b.bases.length() - 1;
+			if (start > bufEnd) {
+				b.bases.setLength(0);
+				b.start = start;
+				bufEnd = start - 1;
+			} else if (start > b.start) {
+				b.bases.delete(0, start - b.start);
+				b.start = start;
+			}
+
+			/* Read forward to the end of the range */
+			if (end > bufEnd)
+				b.bases.append(source.get(chr, bufEnd + 1,
+						Math.max(end, bufEnd + READ_AHEAD)));
+
+			return b.bases.substring(0,
+					Math.min(end - b.start + 1, b.bases.length()));
+		}
+	}
+}
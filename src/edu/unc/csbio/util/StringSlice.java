@@ -0,0 +1,72 @@
+package edu.unc.csbio.util;
+
+/**
+ * The class <code>StringSlice</code> is a view of a range of a string.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class StringSlice extends SequenceView {
+	/**
+	 * the string
+	 */
+	private final String s;
+	/**
+	 * the index of the first base in the string
+	 */
+	private final int from;
+	/**
+	 * the length of the view
+	 */
+	private final int length;
+
+	/**
+	 * A constructor for <code>StringSlice</code> object
+	 *
+	 * @param _s the string
+	 * @param _from the index of the first base in the string
+	 * @param _length the length of the view
+	 */
+	public StringSlice(String _s, int _from, int _length) {
+		if (_from < 0 || _length < 0 || _from + _length > _s.length())
+			throw (new IndexOutOfBoundsException("Range [" + _from + ", "
+					+ (_from + _length) + ") out of range."));
+		s = _s;
+		from = _from;
+		length = _length;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= length)
+			throw (new IndexOutOfBoundsException("Position " + index
+					+ " out of range."));
+		return s.charAt(from + index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length || start > end)
+			throw (new IndexOutOfBoundsException("Range [" + start + ", "
+					+ end + ") out of range."));
+		return new StringSlice(s, from + start, end - start);
+	}
+
+	@Override
+	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+		if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd)
+			throw (new IndexOutOfBoundsException("Range [" + srcBegin + ", "
+					+ srcEnd + ") out of range."));
+		s.getChars(from + srcBegin, from + srcEnd, dst, dstBegin);
+	}
+
+	@Override
+	public String toString() {
+		return s.substring(from, from + length);
+	}
+}
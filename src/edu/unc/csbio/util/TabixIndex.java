@@ -0,0 +1,294 @@
+package edu.unc.csbio.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The class <code>TabixIndex</code> is the index of a file compressed by
+ * bgzip, e.g. a VCF file, in the .tbi layout of tabix or the .csi layout of
+ * htslib. The records of each sequence are grouped by the bins of a binning
+ * scheme, and each bin lists the chunks of the file, given as pairs of
+ * virtual offsets, holding its records. A region is looked up by collecting
+ * the chunks of the bins overlapping it.
+ *
+ * Only indexes of VCF files are supported, i.e. built by "tabix -p vcf" or
+ * with the same columns: the sequence name in column 1, the 1-based position
+ * in column 2, and the end given by the reference allele. The records are
+ * read by <code>VCFReader</code>, which knows the columns of VCF files.
+ *
+ * An index is immutable once it is read, so it can be used by many threads at
+ * the same time.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class TabixIndex {
+	/**
+	 * The bins and the chunks of one sequence
+	 */
+	private static class Sequence {
+		/**
+		 * the chunks of each bin, as begin and end virtual offsets
+		 */
+		final HashMap<Integer, long[]> bins = new HashMap<Integer, long[]>();
+		/**
+		 * the lowest virtual offset of the records in each bin, for .csi
+		 */
+		final HashMap<Integer, Long> loffsets = new HashMap<Integer, Long>();
+		/**
+		 * the lowest virtual offset of the records in each 16 kb window, for
+		 * .tbi
+		 */
+		long[] intervals = new long[0];
+	}
+
+	/**
+	 * the number of bits of the smallest bins and the depth of the binning
+	 * scheme
+	 */
+	private int minShift = 14, depth = 5;
+	/**
+	 * whether the index is in the .csi layout
+	 */
+	private boolean csi = false;
+	/**
+	 * the prefix of meta lines
+	 */
+	private char meta;
+	/**
+	 * the sequences by their names
+	 */
+	private final HashMap<String, Sequence> sequences = new HashMap<String, Sequence>();
+
+	/**
+	 * Read a .tbi or a .csi index file.
+	 *
+	 * @param indexFile the name of the index file
+	 * @return the index
+	 * @throws IOException
+	 *             if an input or output exception occurred, or the file is
+	 *             not a tabix index
+	 */
+	public static TabixIndex read(String indexFile) throws IOException {
+		TabixIndex index = new TabixIndex();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(indexFile), 1 << 16)));
+		try {
+			byte[] magic = new byte[4];
+			in.readFully(magic);
+			int nRef;
+			if (magic[0] == 'T' && magic[1] == 'B' && magic[2] == 'I'
+					&& magic[3] == 1) {
+				nRef = readInt(in);
+				index.readHeader(in);
+			} else if (magic[0] == 'C' && magic[1] == 'S' && magic[2] == 'I'
+					&& magic[3] == 1) {
+				index.csi = true;
+				index.minShift = readInt(in);
+				index.depth = readInt(in);
+				int lAux = readInt(in);
+				if (lAux < 28)
+					throw (new IOException("Index file [" + indexFile
+							+ "] has no tabix header."));
+				byte[] aux = new byte[lAux];
+				in.readFully(aux);
+				index.readHeader(new DataInputStream(new ByteArrayInputStream(
+						aux)));
+				nRef = readInt(in);
+			} else
+				throw (new IOException("[" + indexFile
+						+ "] is not a tabix index."));
+
+			if (nRef != index.names.length)
+				throw (new IOException("Inconsistent number of sequences in ["
+						+ indexFile + "]."));
+			for (String name : index.names)
+				index.sequences.put(name, index.readSequence(in));
+		} catch (EOFException e) {
+			throw (new IOException("Index file [" + indexFile
+					+ "] is truncated."));
+		} finally {
+			in.close();
+		}
+		index.names = null;
+		return index;
+	}
+
+	/**
+	 * the names of the sequences, in the order of the index, while it is read
+	 */
+	private String[] names;
+
+	/**
+	 * Read the tabix header: the format, the columns, the meta prefix, the
+	 * lines to skip, and the names of the sequences. The format and the
+	 * columns must be those of VCF files.
+	 */
+	private void readHeader(DataInputStream in) throws IOException {
+		int format = readInt(in);
+		int colSeq = readInt(in);
+		int colBeg = readInt(in);
+		readInt(in); // the column of the end, unused by VCF
+		if ((format & 0xffff) != 2
+				&& ((format & 0xffff) != 0 || (format & 0x10000) != 0
+						|| colSeq != 1 || colBeg != 2))
+			throw (new IOException("Only tabix indexes of VCF files are supported."));
+		meta = (char) readInt(in);
+		readInt(in); // the lines to skip
+		int lNm = readInt(in);
+		byte[] nm = new byte[lNm];
+		in.readFully(nm);
+		ArrayList<String> list = new ArrayList<String>();
+		int from = 0;
+		for (int i = 0; i < lNm; ++i) {
+			if (nm[i] == 0) {
+				list.add(new String(nm, from, i - from, "US-ASCII"));
+				from = i + 1;
+			}
+		}
+		names = list.toArray(new String[list.size()]);
+	}
+
+	/**
+	 * Read the bins and the chunks of a sequence.
+	 */
+	private Sequence readSequence(DataInputStream in) throws IOException {
+		Sequence seq = new Sequence();
+		int nBin = readInt(in);
+		for (int i = 0; i < nBin; ++i) {
+			int bin = readInt(in);
+			if (csi)
+				seq.loffsets.put(bin, readLong(in));
+			int nChunk = readInt(in);
+			long[] chunks = new long[2 * nChunk];
+			for (int j = 0; j < 2 * nChunk; ++j)
+				chunks[j] = readLong(in);
+			seq.bins.put(bin, chunks);
+		}
+		if (!csi) {
+			int nIntv = readInt(in);
+			seq.intervals = new long[nIntv];
+			for (int i = 0; i < nIntv; ++i)
+				seq.intervals[i] = readLong(in);
+		}
+		return seq;
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		return Integer.reverseBytes(in.readInt());
+	}
+
+	private static long readLong(DataInputStream in) throws IOException {
+		return Long.reverseBytes(in.readLong());
+	}
+
+	/**
+	 * Get the prefix of the meta lines
+	 *
+	 * @return the prefix
+	 */
+	public char getMeta() {
+		return meta;
+	}
+
+	/**
+	 * Get the chunks of the file that may hold the records overlapping a
+	 * region. The chunks are sorted and merged, and may hold other records
+	 * as well.
+	 *
+	 * @param name the name of the sequence
+	 * @param beg the 0-based begin of the region
+	 * @param end the 0-based end of the region, exclusive
+	 * @return the begin and end virtual offsets of each chunk, one pair after
+	 *         another
+	 */
+	public long[] query(String name, int beg, int end) {
+		Sequence seq = sequences.get(name);
+		if (seq == null || beg >= end)
+			return new long[0];
+		if (beg < 0)
+			beg = 0;
+
+		long minOffset = minOffset(seq, beg);
+		ArrayList<long[]> chunks = new ArrayList<long[]>();
+		for (int bin : reg2bins(beg, end)) {
+			long[] c = seq.bins.get(bin);
+			if (c == null)
+				continue;
+			for (int i = 0; i < c.length; i += 2) {
+				if (c[i + 1] > minOffset)
+					chunks.add(new long[] { Math.max(c[i], minOffset),
+							c[i + 1] });
+			}
+		}
+		long[][] sorted = chunks.toArray(new long[chunks.size()][]);
+		Arrays.sort(sorted, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return a[0] < b[0] ? -1 : (a[0] > b[0] ? 1 : 0);
+			}
+		});
+
+		/* Merge the overlapping chunks */
+		long[] merged = new long[2 * sorted.length];
+		int n = 0;
+		for (long[] c : sorted) {
+			if (n > 0 && c[0] <= merged[n - 1]) {
+				merged[n - 1] = Math.max(merged[n - 1], c[1]);
+			} else {
+				merged[n++] = c[0];
+				merged[n++] = c[1];
+			}
+		}
+		return Arrays.copyOf(merged, n);
+	}
+
+	/**
+	 * Get the lowest virtual offset of the records ending after a position.
+	 */
+	private long minOffset(Sequence seq, int beg) {
+		if (!csi) {
+			if (seq.intervals.length == 0)
+				return 0;
+			int i = Math.min(beg >> 14, seq.intervals.length - 1);
+			return seq.intervals[i];
+		}
+		/* The smallest bin containing the position, or one of its parents */
+		int first = ((1 << (3 * depth)) - 1) / 7;
+		int bin = first + (beg >> minShift);
+		while (true) {
+			Long off = seq.loffsets.get(bin);
+			if (off != null)
+				return off;
+			if (bin == 0)
+				return 0;
+			bin = (bin - 1) >> 3;
+		}
+	}
+
+	/**
+	 * Get the bins overlapping a region, as in htslib.
+	 */
+	private ArrayList<Integer> reg2bins(long beg, long end) {
+		ArrayList<Integer> bins = new ArrayList<Integer>();
+		int s = minShift + depth * 3;
+		if (end >= 1L << s)
+			end = 1L << s;
+		--end;
+		for (int l = 0, t = 0; l <= depth; s -= 3, t += 1 << (3 * l), ++l) {
+			long b = t + (beg >> s), e = t + (end >> s);
+			for (long i = b; i <= e; ++i)
+				bins.add((int) i);
+		}
+		return bins;
+	}
+}
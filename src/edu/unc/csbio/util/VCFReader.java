@@ -1,23 +1,56 @@
 package edu.unc.csbio.util;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 import edu.unc.csbio.data.*;
 
 /**
  * A VCFReader Parser conforms to VCF 4.0 (http://www.1000genomes.org/node/101)
+ * 
+ * A VCF file compressed by bgzip is also accepted. If it has a tabix index, 
+ * i.e. the file name followed by ".tbi" or ".csi", the records overlapping a
+ * region can be read by <code>query</code>, which reads only the blocks of 
+ * the file listed by the index. A reader has no state shared between 
+ * queries, so it can be queried by many threads at the same time.
+ * 
+ * The records are read as bytes into a <code>VCFRecord</code>, which locates
+ * only the columns used, and the genotypes of the selected samples are 
+ * checked before any object is made, so the records of other samples, and 
+ * the records where the selected samples carry no alternative allele, cost 
+ * little more than reading them.
  *  
  * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
  * @version 0.1
  */
 public class VCFReader {
-	private static String dataFile = null;
-	private static String sampleName = null;
-	private static int sampleColumn = -1;
+	private final String dataFile;
+	private final String[] sampleNames;
+	private final int[] sampleColumns;
 	
-	private static BufferedReader br = null;
+	private final InputStream in;
+	/**
+	 * the bytes read from the file, and the range not used yet
+	 */
+	private final byte[] buf = new byte[1 << 16];
+	private int bufPos = 0, bufLen = 0;
+	/**
+	 * the record read by <code>readNextGenotypes</code>
+	 */
+	private final VCFRecord record = new VCFRecord();
+	/**
+	 * the tabix index and the reader of the compressed file for queries, or
+	 * null if the file has no index
+	 */
+	private final TabixIndex index;
+	private final BgzfReader bgzf;
 	
 	private static final int chrOffset = 0;
 	private static final int posOffset = 1;
@@ -27,7 +60,7 @@ public class VCFReader {
 	
 	private static final String FS="\t";
 	private static final String altFS=",";
-	private static final String REF=".";
+	private static final Pattern BASES=Pattern.compile("[ACGTNacgtn]+");
 	
 	/**
 	 * Initialize the buffer, skip the meta-information lines, and get
@@ -38,14 +71,31 @@ public class VCFReader {
 	 * @throws IOException
 	 */
 	public VCFReader(String _dataFile, String _sampleName) throws IOException {
+		this(_dataFile, new String[] { _sampleName });
+	}
+	
+	/**
+	 * Initialize the buffer, skip the meta-information lines, and get
+	 * the column ids of the selected samples.
+	 *  
+	 * @param _dataFile the file name of the VCF file
+	 * @param _sampleNames the selected sample names of the VCF file 
+	 * @throws IOException
+	 */
+	public VCFReader(String _dataFile, String[] _sampleNames) throws IOException {
 		dataFile = _dataFile;
-		sampleName = _sampleName;
+		sampleNames = _sampleNames;
+		sampleColumns = new int[sampleNames.length];
+		Arrays.fill(sampleColumns, -1);
 				
-		br = new BufferedReader(new FileReader(dataFile));
-		String line = null;
+		if (BgzfReader.isGzipped(dataFile))
+			in = new GZIPInputStream(new FileInputStream(dataFile), 1 << 16);
+		else
+			in = new FileInputStream(dataFile);
 		
-		while ((line=br.readLine())!=null) {
-			if (line.length()<=0) continue;
+		while (readLine(record)) {
+			if (record.length()<=0) continue;
+			String line = record.toString();
 			
 			// If it is not a meta-information line or a header line, stop. 
 			// Usually, this condition will not be satisfied.
@@ -58,64 +108,263 @@ public class VCFReader {
 				if ( line.length()>1 && line.charAt(1)!='#') {					
 					String[] tmp = line.split(FS);
 					for(int i=sampleOffset; i<tmp.length; ++i)
-						if (tmp[i].equals(sampleName))
-							sampleColumn=i;
+						for(int j=0; j<sampleNames.length; ++j)
+							if (tmp[i].equals(sampleNames[j]))
+								sampleColumns[j]=i;
 					break;
 				}
 				// else the line is meta-infomation, skip
 			}
 		}
 		
-		if (sampleColumn<0)
-			throw(new RuntimeException("Sample name not found in VCF file."));
+		for(int j=0; j<sampleNames.length; ++j)
+			if (sampleColumns[j]<0)
+				throw(new RuntimeException("Sample name " + sampleNames[j]
+						+ " not found in VCF file."));
+		
+		String indexFile = null;
+		if (new File(dataFile + ".tbi").exists())
+			indexFile = dataFile + ".tbi";
+		else if (new File(dataFile + ".csi").exists())
+			indexFile = dataFile + ".csi";
+		if (indexFile != null && BgzfReader.isGzipped(dataFile)) {
+			index = TabixIndex.read(indexFile);
+			bgzf = new BgzfReader(dataFile, false);
+		} else {
+			index = null;
+			bgzf = null;
+		}
 	}
 	
 	/**
-	 * Read the VCF file and return the next insertion/deletion object.
-	 * @return A Feature object that is either a insertion or a deletion.
+	 * Read the next line of the file into a record.
+	 * @return false if there are no more lines
+	 * @throws IOException
+	 */
+	private boolean readLine(VCFRecord r) throws IOException {
+		r.clear();
+		while (true) {
+			if (bufPos==bufLen) {
+				bufLen = in.read(buf);
+				bufPos = 0;
+				if (bufLen<=0) {
+					bufLen = 0;
+					r.trim();
+					return r.length()>0;
+				}
+			}
+			int i = bufPos;
+			while (i<bufLen && buf[i]!='\n')
+				++i;
+			r.append(buf, bufPos, i-bufPos);
+			if (i<bufLen) {
+				bufPos = i+1;
+				r.trim();
+				return true;
+			}
+			bufPos = i;
+		}
+	}
+	
+	/**
+	 * Check whether the VCF file has a tabix index, so it can be queried by
+	 * region.
+	 * @return true if the file has an index
+	 */
+	public boolean isIndexed() {
+		return index != null;
+	}
+	
+	/**
+	 * Read the VCF file and return the next variant object.
+	 * Only the first allele of the genotype is used.
+	 * @return A Feature object that is an insertion, a deletion or a 
+	 * substitution.
 	 * @throws IOException
 	 */
 	public Feature readNext() throws IOException {
-		String line = null;		
-		String alt = null;
-		String ref = null;
-		int altId = -1;
-		
-		while ((line=br.readLine())!=null) {
-			if (line.length()<=0) continue;
-			if (line.charAt(0)=='#') continue;
+		Feature[] alleles = null;
+		while ((alleles=readNextAlleles())!=null) {
+			if (alleles[0]!=null)
+				return alleles[0];
+		}
+		return null;
+	}
+	
+	/**
+	 * Read the VCF file and return the variant objects of each
+	 * allele of the genotype of the first sample in the next record, in the
+	 * order of the genotype, e.g. the haplotypes of a phased genotype "0|1".
+	 * Records of which no allele is an alternative are skipped.
+	 * @return An array of Feature objects, with null for the alleles that 
+	 * are the reference; or null if there are no more records.
+	 * @throws IOException
+	 */
+	public Feature[] readNextAlleles() throws IOException {
+		Feature[][] genotypes = null;
+		while ((genotypes=readNextGenotypes())!=null) {
+			for (Feature f : genotypes[0])
+				if (f!=null)
+					return genotypes[0];
+		}
+		return null;
+	}
+	
+	/**
+	 * Read the VCF file and return the variant objects of each
+	 * allele of the genotype of each selected sample in the next record. 
+	 * The samples carrying the same alternative allele share its object.
+	 * Records of which no allele of any sample is an alternative are 
+	 * skipped.
+	 * @return An array of the alleles of each sample, in the order of the 
+	 * selected samples, with null for the alleles that are the reference; 
+	 * or null if there are no more records.
+	 * @throws IOException
+	 */
+	public Feature[][] readNextGenotypes() throws IOException {
+		while (readLine(record)) {
+			if (record.length()<=0) continue;
+			if (record.charAt(0)=='#') continue;
 			
-			String[] field = line.split(FS);			
-			if (!field[sampleColumn].equals(REF)) {
-//				System.out.println(field[refOffset]+" "+field[altOffset]+" "+field[sampleOffset]);
-				altId = Integer.parseInt(field[sampleColumn].split("/")[0]);
-				alt = field[altOffset].split(altFS)[altId-1];
-				ref = field[refOffset];
-				
-				if (ref.length()<alt.length()) {
-//					if (alt.startsWith(ref))
-					if (alt.endsWith(ref.substring(1))) {
-//						System.out.println(field[chrOffset]+" "+field[posOffset]+" "+field[refOffset]+" "+" "+field[altOffset]+" "+field[sampleOffset]);						
-						return new Insertion(field[chrOffset],Integer.parseInt(field[posOffset])+1,alt.substring(1, alt.length()-ref.length()+1));
-					}						
-					else {
-						System.err.println("wrong!");
-						System.err.println(field[refOffset]+" "+field[altOffset]+" "+field[sampleColumn]);
-					}
-				}		
-				else {
-//					if (ref.startsWith(alt))
-					if (ref.endsWith(alt.substring(1))) {						
-//						System.out.println(field[chrOffset]+" "+field[posOffset]+" "+field[refOffset]+" "+" "+field[altOffset]+" "+field[sampleOffset]);
-						return new Deletion(field[chrOffset],Integer.parseInt(field[posOffset])+1,Integer.parseInt(field[posOffset])+ref.length()-alt.length());
-					}						
-					else {
-						System.err.println("wrong!");
-						System.err.println(field[refOffset]+" "+field[altOffset]+" "+field[sampleColumn]);
+			Feature[][] genotypes = parse(record);
+			if (genotypes!=null)
+				return genotypes;
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the variant objects of each allele of the genotype of
+	 * each selected sample in a record.
+	 * Nothing is made for a record where no selected sample has an 
+	 * alternative allele.
+	 * @return An array of the alleles of each sample, or null if no allele
+	 * of any sample is an alternative.
+	 */
+	private Feature[][] parse(VCFRecord r) {
+		boolean any = false;
+		for (int j=0; j<sampleColumns.length && !any; ++j)
+			any = r.hasAlternative(sampleColumns[j]);
+		if (!any)
+			return null;
+		
+		Feature[][] genotypes = new Feature[sampleColumns.length][];
+		/* The features of the alternative alleles, made once each */
+		HashMap<Integer, Feature> features = new HashMap<Integer, Feature>();
+		boolean found = false;
+		for (int j=0; j<sampleColumns.length; ++j) {
+			int[] ids = r.alleles(sampleColumns[j]);
+			genotypes[j] = new Feature[ids.length];
+			for (int i=0; i<ids.length; ++i) {
+				if (ids[i]==0)
+					continue;
+				int altId = ids[i];
+				if (!features.containsKey(altId))
+					features.put(altId, toFeature(r, j, altId));
+				genotypes[j][i] = features.get(altId);
+				found |= (genotypes[j][i]!=null);
+			}
+		}
+		return found ? genotypes : null;
+	}
+	
+	/**
+	 * Read the records overlapping a region from the indexed VCF file, and
+	 * return the variant objects of each allele of the genotype
+	 * of each selected sample, as <code>readNextGenotypes</code> does. A 
+	 * record overlaps the region if its reference allele does.
+	 * @param chr the chromosome
+	 * @param start the 1-based start position of the region
+	 * @param end the 1-based end position of the region, inclusive
+	 * @return The alleles of each record, in the order of the file.
+	 * @throws IOException
+	 */
+	public ArrayList<Feature[][]> query(String chr, int start, int end) throws IOException {
+		if (index==null)
+			throw(new RuntimeException("VCF file " + dataFile + " has no index."));
+		ArrayList<Feature[][]> records = new ArrayList<Feature[][]>();
+		long[] chunks = index.query(chr, start-1, end);
+		VCFRecord line = new VCFRecord();
+		for (int c=0; c<chunks.length; c+=2) {
+			long block = chunks[c] >>> 16;
+			int off = (int) (chunks[c] & 0xffff);
+			/* the virtual offset of the line being read */
+			long lineStart = chunks[c];
+			line.clear();
+			while (block>=0 && lineStart<chunks[c+1]) {
+				byte[] data = bgzf.inflate(block);
+				for (int i=off; i<data.length; ++i) {
+					if (data[i]!='\n')
+						continue;
+					line.append(data, off, i-off);
+					off = i+1;
+					line.trim();
+					if (line.length()>0 && line.charAt(0)!=index.getMeta()) {
+						if (!line.fieldEquals(chrOffset, chr))
+							return records;
+						int pos = line.intField(posOffset);
+						if (pos>end)
+							return records;
+						if (pos+line.fieldLength(refOffset)-1>=start) {
+							Feature[][] genotypes = parse(line);
+							if (genotypes!=null)
+								records.add(genotypes);
+						}
 					}
+					line.clear();
+					lineStart = (block << 16) | (i+1);
+					if (lineStart>=chunks[c+1])
+						break;
 				}
-				break;				
-			}				
+				if (off<data.length && lineStart<chunks[c+1])
+					line.append(data, off, data.length-off);
+				off = 0;
+				block = bgzf.nextBlock(block);
+				if (line.length()==0 && lineStart>>>16 != block)
+					lineStart = block << 16;
+			}
+		}
+		return records;
+	}
+	
+	/**
+	 * Convert an alternative allele of a record to an insertion/deletion
+	 * object, or to a substitution object if the alternative allele is as 
+	 * long as the reference allele, e.g. a single-nucleotide variant.
+	 * @return A Feature object, or null if the allele is none of them.
+	 */
+	private Feature toFeature(VCFRecord r, int sample, int altId) {
+		String alt = r.field(altOffset).split(altFS)[altId-1];
+		String ref = r.field(refOffset);
+		String chr = r.field(chrOffset);
+		int pos = r.intField(posOffset);
+		
+		if (ref.length()==alt.length()) {
+			if (!BASES.matcher(alt).matches())
+				return null;
+			return new Substitution(chr,pos,alt);
+		}
+		if (ref.length()<alt.length()) {
+//			if (alt.startsWith(ref))
+			if (alt.endsWith(ref.substring(1))) {
+//				System.out.println(field[chrOffset]+" "+field[posOffset]+" "+field[refOffset]+" "+" "+field[altOffset]+" "+field[sampleOffset]);						
+				return new Insertion(chr,pos+1,alt.substring(1, alt.length()-ref.length()+1));
+			}						
+			else {
+				System.err.println("wrong!");
+				System.err.println(ref+" "+r.field(altOffset)+" "+r.field(sampleColumns[sample]));
+			}
+		}		
+		else {
+//			if (ref.startsWith(alt))
+			if (ref.endsWith(alt.substring(1))) {						
+//				System.out.println(field[chrOffset]+" "+field[posOffset]+" "+field[refOffset]+" "+" "+field[altOffset]+" "+field[sampleOffset]);
+				return new Deletion(chr,pos+1,pos+ref.length()-alt.length());
+			}						
+			else {
+				System.err.println("wrong!");
+				System.err.println(ref+" "+r.field(altOffset)+" "+r.field(sampleColumns[sample]));
+			}
 		}
 		return null;
 	}
@@ -125,7 +374,8 @@ public class VCFReader {
 	 * @throws IOException
 	 */
 	public void close() throws IOException {
-		if (br!=null) 
-			br.close();
+		in.close();
+		if (bgzf!=null)
+			bgzf.close();
 	}
 }
@@ -0,0 +1,257 @@
+package edu.unc.csbio.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The class <code>VCFRecord</code> is a line of a VCF file kept as bytes,
+ * of which the columns are located only when they are asked for. Locating a
+ * sample column only scans for the tabs before it, and the genotype of a
+ * sample can be checked without making any object, so the records of many
+ * samples are not split into thousands of strings.
+ *
+ * A record is reused for the lines read one after another, and is used by one
+ * thread.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class VCFRecord {
+	/**
+	 * the bytes of the line, without the end of line
+	 */
+	private byte[] line = new byte[1024];
+	/**
+	 * the length of the line
+	 */
+	private int length = 0;
+	/**
+	 * the offset of the end of each column located, i.e. of the tab after it
+	 * or of the end of the line
+	 */
+	private int[] ends = new int[16];
+	/**
+	 * the number of columns located
+	 */
+	private int located = 0;
+
+	/**
+	 * Empty the record for the next line.
+	 */
+	public void clear() {
+		length = 0;
+		located = 0;
+	}
+
+	/**
+	 * Append bytes to the line.
+	 *
+	 * @param b the bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 */
+	public void append(byte[] b, int off, int len) {
+		if (length + len > line.length)
+			line = Arrays.copyOf(line, Math.max(length + len, line.length * 2));
+		System.arraycopy(b, off, line, length, len);
+		length += len;
+		located = 0;
+	}
+
+	/**
+	 * Get the length of the line
+	 *
+	 * @return the length of the line
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Get a byte of the line
+	 *
+	 * @param i the offset of the byte
+	 * @return the byte as a character
+	 */
+	public char charAt(int i) {
+		return (char) (line[i] & 0xff);
+	}
+
+	/**
+	 * Drop a carriage return at the end of the line.
+	 */
+	public void trim() {
+		if (length > 0 && line[length - 1] == '\r')
+			--length;
+	}
+
+	/**
+	 * Locate the columns up to a column, and get its end.
+	 */
+	private int end(int col) {
+		if (col >= located) {
+			if (col >= ends.length)
+				ends = Arrays.copyOf(ends, Math.max(col + 1, ends.length * 2));
+			int p = located == 0 ? 0 : ends[located - 1] + 1;
+			while (located <= col) {
+				if (p > length)
+					throw (new RuntimeException("Column " + (col + 1)
+							+ " not found in VCF record."));
+				while (p < length && line[p] != '\t')
+					++p;
+				ends[located++] = p++;
+			}
+		}
+		return ends[col];
+	}
+
+	/**
+	 * Get the start of a column.
+	 */
+	private int start(int col) {
+		end(col);
+		return col == 0 ? 0 : ends[col - 1] + 1;
+	}
+
+	/**
+	 * Get a column as a string
+	 *
+	 * @param col the 0-based column
+	 * @return the column
+	 */
+	public String field(int col) {
+		int s = start(col);
+		return new String(line, s, ends[col] - s, StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Get the length of a column
+	 *
+	 * @param col the 0-based column
+	 * @return the length of the column
+	 */
+	public int fieldLength(int col) {
+		int s = start(col);
+		return ends[col] - s;
+	}
+
+	/**
+	 * Check whether a column is equal to a string
+	 *
+	 * @param col the 0-based column
+	 * @param s the string
+	 * @return true if the column is equal to the string
+	 */
+	public boolean fieldEquals(int col, String s) {
+		int from = start(col);
+		if (ends[col] - from != s.length())
+			return false;
+		for (int i = 0; i < s.length(); ++i)
+			if (line[from + i] != s.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Get a column as an integer
+	 *
+	 * @param col the 0-based column
+	 * @return the integer
+	 * @throws NumberFormatException
+	 *             if the column is not an integer
+	 */
+	public int intField(int col) {
+		int s = start(col), e = ends[col];
+		if (s == e)
+			throw (new NumberFormatException("Empty column " + (col + 1)
+					+ " in VCF record."));
+		int v = 0;
+		for (int i = s; i < e; ++i) {
+			int d = line[i] - '0';
+			if (d < 0 || d > 9)
+				throw (new NumberFormatException("For input string: \""
+						+ field(col) + "\""));
+			v = v * 10 + d;
+		}
+		return v;
+	}
+
+	/**
+	 * Get the end of the genotype of a sample column, i.e. its first
+	 * subfield.
+	 */
+	private int genotypeEnd(int s, int e) {
+		for (int i = s; i < e; ++i)
+			if (line[i] == ':')
+				return i;
+		return e;
+	}
+
+	/**
+	 * Check whether the genotype of a sample column has an alternative
+	 * allele, without making any object.
+	 *
+	 * @param col the 0-based column of the sample
+	 * @return true if an allele of the genotype is neither the reference nor
+	 *         missing
+	 */
+	public boolean hasAlternative(int col) {
+		int s = start(col), e = genotypeEnd(s, ends[col]);
+		for (int i = s; i < e; ++i) {
+			byte b = line[i];
+			if (b != '0' && b != '.' && b != '/' && b != '|')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Get the alleles of the genotype of a sample column, e.g. {0, 1} for
+	 * "0|1", in the order of the genotype. Trailing empty alleles are dropped
+	 * as <code>String.split</code> does.
+	 *
+	 * @param col the 0-based column of the sample
+	 * @return the index of each allele, with 0 for the reference, missing or
+	 *         empty alleles
+	 * @throws NumberFormatException
+	 *             if an allele is not an index
+	 */
+	public int[] alleles(int col) {
+		int s = start(col), e = genotypeEnd(s, ends[col]);
+		int n = 1;
+		for (int i = s; i < e; ++i)
+			if (line[i] == '/' || line[i] == '|')
+				++n;
+		int[] ids = new int[n];
+		int k = 0, last = 0;
+		boolean empty = true;
+		for (int i = s; i <= e; ++i) {
+			if (i == e || line[i] == '/' || line[i] == '|') {
+				if (!empty)
+					last = k + 1;
+				++k;
+				empty = true;
+				continue;
+			}
+			empty = false;
+			byte b = line[i];
+			if (b == '.')
+				continue;
+			int d = b - '0';
+			if (d < 0 || d > 9)
+				throw (new NumberFormatException("Allele not an index in \""
+						+ new String(line, s, e - s, StandardCharsets.US_ASCII)
+						+ "\""));
+			ids[k] = ids[k] * 10 + d;
+		}
+		/* As split, an empty genotype is one empty allele */
+		if (n > 1 && last < n)
+			return Arrays.copyOf(ids, last);
+		return ids;
+	}
+
+	@Override
+	public String toString() {
+		return new String(line, 0, length, StandardCharsets.US_ASCII);
+	}
+}
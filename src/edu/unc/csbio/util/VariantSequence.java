@@ -0,0 +1,104 @@
+package edu.unc.csbio.util;
+
+import java.util.Arrays;
+
+/**
+ * The class <code>VariantSequence</code> is a view of a sequence with
+ * single-nucleotide variants applied on top of it. The variants are a range
+ * of sorted arrays of positions and bases shared by all views of a
+ * chromosome, so a view costs no more memory than its position, whatever the
+ * number of variants.
+ *
+ * Bases are copied out of the sequence in bulk, and then the variants in the
+ * range are applied in one pass.
+ *
+ * @author Shunping Huang <sphuang@cs.unc.edu>, Jack Wang <zhew@live.unc.edu>
+ * @version 0.1
+ */
+public class VariantSequence extends SequenceView {
+	/**
+	 * the sequence without the variants
+	 */
+	private final CharSequence raw;
+	/**
+	 * the sorted positions of the variants, and the bases replacing the
+	 * reference at them
+	 */
+	private final int[] positions;
+	private final byte[] bases;
+	/**
+	 * the range of the variants in the view
+	 */
+	private final int lo, hi;
+	/**
+	 * the position of the first base of the view
+	 */
+	private final int origin;
+
+	/**
+	 * A constructor for <code>VariantSequence</code> object
+	 *
+	 * @param _raw the sequence without the variants
+	 * @param _origin the position of the first base of the sequence
+	 * @param _positions the sorted positions of the variants
+	 * @param _bases the bases of the variants
+	 * @param _lo the index of the first variant in the sequence
+	 * @param _hi the index after the last variant in the sequence
+	 */
+	public VariantSequence(CharSequence _raw, int _origin, int[] _positions,
+			byte[] _bases, int _lo, int _hi) {
+		raw = _raw;
+		origin = _origin;
+		positions = _positions;
+		bases = _bases;
+		lo = _lo;
+		hi = _hi;
+	}
+
+	@Override
+	public int length() {
+		return raw.length();
+	}
+
+	@Override
+	public char charAt(int index) {
+		char c = raw.charAt(index);
+		int k = Arrays.binarySearch(positions, lo, hi, origin + index);
+		return k >= 0 ? (char) bases[k] : c;
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > length() || start > end)
+			throw (new IndexOutOfBoundsException("Range [" + start + ", "
+					+ end + ") out of range."));
+		int l = first(origin + start), h = first(origin + end);
+		if (l == h)
+			return raw.subSequence(start, end);
+		return new VariantSequence(raw.subSequence(start, end), origin + start,
+				positions, bases, l, h);
+	}
+
+	@Override
+	public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+		SequenceView.copy(raw, srcBegin, srcEnd, dst, dstBegin);
+		int last = origin + srcEnd;
+		for (int k = first(origin + srcBegin); k < hi && positions[k] < last; ++k)
+			dst[dstBegin + positions[k] - origin - srcBegin] = (char) bases[k];
+	}
+
+	/**
+	 * Find the first variant at or after a position.
+	 */
+	private int first(int pos) {
+		int a = lo, b = hi;
+		while (a < b) {
+			int mid = (a + b) >>> 1;
+			if (positions[mid] < pos)
+				a = mid + 1;
+			else
+				b = mid;
+		}
+		return a;
+	}
+}